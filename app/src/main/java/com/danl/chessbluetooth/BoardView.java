@@ -151,8 +151,7 @@ public class BoardView extends View {
 
         MoveGen.MoveList moves = null;
         if (mPosition != null) {
-            moves = mMoveGen.pseudoLegalMoves(mPosition);
-            MoveGen.removeIllegal(mPosition, moves);
+            moves = mMoveGen.legalMoves(mPosition);
         }
 
         int x, y = 0;
@@ -192,9 +191,9 @@ public class BoardView extends View {
 
                 if (mSelectedSquare != -1 && moves != null) {
                     for (int mi = 0; mi < moves.size; mi++) {
-                        Move move = moves.m[mi];
+                        int move = moves.m[mi];
 
-                        if (move.from == mSelectedSquare && move.to == square) {
+                        if (Move.getFrom(move) == mSelectedSquare && Move.getTo(move) == square) {
                             mPaint.setColor(Color.YELLOW);
                             mPaint.setAlpha(127);
                             canvas.drawRect(x, y, x + mSquareSize, y + mSquareSize, mPaint);
@@ -69,7 +69,7 @@ public class ComputerGameActivity extends BaseActivity implements GUIInterface {
                 AlertDialog.Builder builder = new AlertDialog.Builder(this);
                 builder.setMessage("Вы уверены что хотите начать заново?").setPositiveButton("Да",
                         (dialog, which) -> new Thread(() -> {
-                            mChessController.newGame(true, 16, false, mStrength);
+                            mChessController.newGame(true, 0, false, mStrength);
                             mChessController.startGame();
                         }).start()).setNegativeButton("Нет", null);
                 showDialog(builder.create());
@@ -87,8 +87,9 @@ public class ComputerGameActivity extends BaseActivity implements GUIInterface {
         });
 
         mChessController = new ChessController(this);
+        mChessController.setPonderMode(preferences.getBoolean("computer_ponder", false));
         new Thread(() -> {
-            mChessController.newGame(true, 16, false, mStrength);
+            mChessController.newGame(true, 0, false, mStrength);
 
             List<String> posHistory = new ArrayList<>();
             posHistory.add(preferences.getString("computer_startFEN", ""));
@@ -123,11 +123,10 @@ class ChessController {
      */
     private boolean doMove(Move move) {
         Position pos = game.pos;
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         int promoteTo = move.promoteTo;
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             if ((m.from == move.from) && (m.to == move.to)) {
                 if ((m.promoteTo != Piece.EMPTY) && (promoteTo == Piece.EMPTY)) {
                     promoteMove = m;
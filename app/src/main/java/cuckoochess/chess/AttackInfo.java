@@ -0,0 +1,71 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package cuckoochess.chess;
+
+/**
+ * Check and pin information for a position, seen from the side to move.
+ * Set by compute() once per search node, then used by MoveGen.givesCheck()
+ * and MoveGen.legalMoves() for all moves in the node.
+ */
+public class AttackInfo {
+    long checkers;      // Opponent pieces giving check to our king
+    long pinned;        // Our pieces pinned to our king
+    long discoverers;   // Our pieces that give discovered check if they leave the line to the opponent king
+    long occupied;      // All occupied squares
+    int oKingSq;        // Opponent king square
+
+    /** Squares from which a piece of a given type would attack the opponent king. Index is white piece type. */
+    final long[] checkSquares = new long[Piece.WPAWN + 1];
+
+    /** Compute all information for a position. */
+    public final void compute(Position pos) {
+        final boolean wtm = pos.whiteMove;
+        checkers = MoveGen.checkers(pos);
+        pinned = MoveGen.pinnedPieces(pos);
+        occupied = pos.whiteBB | pos.blackBB;
+        oKingSq = pos.getKingSq(!wtm);
+
+        final long bishAtk = BitBoard.bishopAttacks(oKingSq, occupied);
+        final long rookAtk = BitBoard.rookAttacks(oKingSq, occupied);
+        checkSquares[Piece.WQUEEN] = bishAtk | rookAtk;
+        checkSquares[Piece.WROOK] = rookAtk;
+        checkSquares[Piece.WBISHOP] = bishAtk;
+        checkSquares[Piece.WKNIGHT] = BitBoard.knightAttacks[oKingSq];
+        checkSquares[Piece.WPAWN] = wtm ? BitBoard.bPawnAttacks[oKingSq] : BitBoard.wPawnAttacks[oKingSq];
+
+        // Our sliders that are blocked from the opponent king by exactly one of our pieces
+        final long us = wtm ? pos.whiteBB : pos.blackBB;
+        final long bbQueen = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN];
+        long snipers = (BitBoard.rookAttacks(oKingSq, 0) & (pos.pieceTypeBB[wtm ? Piece.WROOK : Piece.BROOK] | bbQueen)) |
+                       (BitBoard.bishopAttacks(oKingSq, 0) & (pos.pieceTypeBB[wtm ? Piece.WBISHOP : Piece.BBISHOP] | bbQueen));
+        long disc = 0;
+        while (snipers != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(snipers);
+            long between = BitBoard.squaresBetween[oKingSq][sq] & occupied;
+            if ((between != 0) && ((between & (between-1)) == 0))
+                disc |= between & us;
+            snipers &= snipers-1;
+        }
+        discoverers = disc;
+    }
+
+    /** Return true if the side to move is in check. */
+    public final boolean inCheck() {
+        return checkers != 0;
+    }
+}
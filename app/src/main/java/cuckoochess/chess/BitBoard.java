@@ -305,6 +305,44 @@ public class BitBoard {
         }
     }
 
+    /**
+     * All squares on the line through sq1 and sq2, from board edge to board edge,
+     * or 0 if the squares are not on a common rank, file or diagonal.
+     * Used to restrict the moves of pinned pieces to the pin line.
+     */
+    static public final long[][] squaresOnLine;
+    static {
+        squaresOnLine = new long[64][];
+        for (int sq1 = 0; sq1 < 64; sq1++) {
+            squaresOnLine[sq1] = new long[64];
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx == 0) && (dy == 0))
+                        continue;
+                    long line = 1L << sq1;
+                    for (int s = -1; s <= 1; s += 2) {
+                        int x = Position.getX(sq1);
+                        int y = Position.getY(sq1);
+                        while (true) {
+                            x += s * dx; y += s * dy;
+                            if ((x < 0) || (x > 7) || (y < 0) || (y > 7))
+                                break;
+                            line |= 1L << Position.getSquare(x, y);
+                        }
+                    }
+                    int x = Position.getX(sq1);
+                    int y = Position.getY(sq1);
+                    while (true) {
+                        x += dx; y += dy;
+                        if ((x < 0) || (x > 7) || (y < 0) || (y > 7))
+                            break;
+                        squaresOnLine[sq1][Position.getSquare(x, y)] = line;
+                    }
+                }
+            }
+        }
+    }
+
     private static final byte dirTable[] = {
            -9,  0,  0,  0,  0,  0,  0, -8,  0,  0,  0,  0,  0,  0, -7,
         0,  0, -9,  0,  0,  0,  0,  0, -8,  0,  0,  0,  0,  0, -7,  0,
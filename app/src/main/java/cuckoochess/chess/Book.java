@@ -123,17 +123,11 @@ public class Book {
             return null;
         }
         
-        MoveGen.MoveList legalMoves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, legalMoves);
+        MoveGen.MoveList legalMoves = new MoveGen().legalMoves(pos);
         int sum = 0;
         for (int i = 0; i < bookMoves.size(); i++) {
             BookEntry be = bookMoves.get(i);
-            boolean contains = false;
-            for (int mi = 0; mi < legalMoves.size; mi++)
-                if (legalMoves.m[mi].equals(be.move)) {
-                    contains = true;
-                    break;
-                }
+            boolean contains = legalMoves.indexOf(be.move) >= 0;
             if  (!contains) {
                 // If an illegal move was found, it means there was a hash collision.
                 return null;
@@ -19,6 +19,7 @@
 package cuckoochess.chess;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -51,6 +52,26 @@ public class ComputerPlayer implements Player {
     private boolean randomMode;
     private Search currentSearch;
     private int strength;
+    private int numThreads;
+    private boolean autoTTSize;         // True if the TT size is derived from the memory budget
+
+    // Search state reused between moves
+    private Search search;              // Reused search object, created by the first search
+    private final History ht;
+    private final MoveGen moveGen;
+    private long[] posHashList;         // Buffer for repetition detection hash keys
+    private int lastGamePly;            // Game ply of the root position in the last search
+
+    // Pondering state, protected by ponderLock
+    private final Object ponderLock = new Object();
+    private Move ponderMove;            // Expected opponent reply, from the PV of the last search
+    private boolean ponderCancelled;    // Set when pondering is stopped before the search started
+    private Search ponderSearch;        // Current ponder search, or null
+    private Position ponderPos;         // Position searched by ponderSearch
+    private long[] ponderPosHashList;
+    private int ponderPosHashListSize;
+    private boolean ponderRunning;      // True while ponderSearch is searching
+    private Move ponderBestMove;        // Result of ponderSearch when it has finished
 
     public ComputerPlayer(int strength) {
         minTimeMillis = 10000;
@@ -58,15 +79,46 @@ public class ComputerPlayer implements Player {
         maxDepth = 100;
         maxNodes = -1;
         verbose = true;
-        setTTLogSize(15);
+        numThreads = 1;
+        setTTLogSize(0);
         book = new Book(verbose);
         bookEnabled = true;
         randomMode = false;
         this.strength = strength;
+        ht = new History();
+        moveGen = new MoveGen();
+    }
+
+    /** Set the number of threads to use when searching. */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        if (autoTTSize)
+            setTTLogSize(0);
     }
 
+    /** Default transposition table memory budget, as a fraction of the maximum heap size. */
+    public static final double DEFAULT_TT_MEMORY_FRACTION = 1.0 / 16;
+
+    /**
+     * Set the transposition table size to 2^logSize entries. If logSize <= 0, the size is
+     * derived from DEFAULT_TT_MEMORY_FRACTION, less the history tables of all search threads,
+     * and is recomputed when the number of threads changes. Current search results are kept
+     * if an existing table is resized.
+     */
     public void setTTLogSize(int logSize) {
-        tt = new TranspositionTable(logSize);
+        autoTTSize = logSize <= 0;
+        if (autoTTSize)
+            logSize = TranspositionTable.log2SizeForMemory(
+                    TranspositionTable.memoryBudget(DEFAULT_TT_MEMORY_FRACTION, numThreads));
+        if (tt == null)
+            tt = new TranspositionTable(logSize);
+        else
+            tt.resize(logSize);
+    }
+
+    /** Set the transposition table size to the largest size that fits in "bytes" bytes. */
+    public void setTTMemory(long bytes) {
+        setTTLogSize(TranspositionTable.log2SizeForMemory(bytes));
     }
     
     private Search.Listener listener;
@@ -76,20 +128,36 @@ public class ComputerPlayer implements Player {
 
     @Override
     public String getCommand(Position pos, boolean drawOffer, List<Position> history) {
-        // Create a search object
-        long[] posHashList = new long[200 + history.size()];
+        // Continue a ponder search if the opponent played the expected move
+        Move bestM = null;
+        long[] posHashList = null;
         int posHashListSize = 0;
-        for (Position p : history) {
-            posHashList[posHashListSize++] = p.zobristHash();
+        synchronized (ponderLock) {
+            if ((ponderSearch != null) && ponderPos.equals(pos)) {
+                posHashList = ponderPosHashList;
+                posHashListSize = ponderPosHashListSize;
+                if (ponderRunning) {
+                    currentSearch = ponderSearch;
+                    ponderSearch.setListener(listener);
+                    ponderSearch.timeLimitFromNow(minTimeMillis, maxTimeMillis);
+                    waitForPonderSearch();
+                    currentSearch = null;
+                }
+                bestM = ponderBestMove;
+            }
+            stopPonder();
         }
+        if (bestM != null)
+            return moveResult(pos, bestM, posHashList, posHashListSize);
+
+        // Create a search object
         tt.nextGeneration();
-        History ht = new History();
-        Search sc = new Search(pos, posHashList, posHashListSize, tt, ht);
-        sc.setStrength(strength, 0);
+        Search sc = prepareSearch(pos, history, null);
+        posHashList = this.posHashList;
+        posHashListSize = history.size();
 
         // Determine all legal moves
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         sc.scoreMoveList(moves, 0);
 
         // Test for "game over"
@@ -109,9 +177,8 @@ public class ComputerPlayer implements Player {
         // Find best move using iterative deepening
         currentSearch = sc;
         sc.setListener(listener);
-        Move bestM;
-        if ((moves.size == 1) && canClaimDraw(pos, posHashList, posHashListSize, moves.m[0]).isEmpty()) {
-            bestM = moves.m[0];
+        if ((moves.size == 1) && canClaimDraw(pos, posHashList, posHashListSize, moves.getMove(0)).isEmpty()) {
+            bestM = moves.getMove(0);
             bestM.score = 0;
         } else if (randomMode) {
             bestM = findSemiRandomMove(sc, moves);
@@ -121,6 +188,48 @@ public class ComputerPlayer implements Player {
         }
         currentSearch = null;
 //        tt.printStats();
+        return moveResult(pos, bestM, posHashList, posHashListSize);
+    }
+
+    /**
+     * Set up the reusable search object for a search from "pos". Killer and history
+     * information from the previous search is kept, adjusted for the number of half-moves
+     * played since then.
+     * @param history  Positions before pos, back to the last zeroing move.
+     * @param prevPos  If non-null, an extra position played after the history positions.
+     */
+    private Search prepareSearch(Position pos, List<Position> history, Position prevPos) {
+        int size = history.size() + ((prevPos != null) ? 1 : 0);
+        if ((posHashList == null) || (posHashList.length < size + 200))
+            posHashList = new long[size + 400];
+        int posHashListSize = 0;
+        for (Position p : history)
+            posHashList[posHashListSize++] = p.zobristHash();
+        if (prevPos != null)
+            posHashList[posHashListSize++] = prevPos.zobristHash();
+
+        int gamePly = pos.fullMoveCounter * 2 + (pos.whiteMove ? 0 : 1);
+        if (search == null) {
+            search = new Search(pos, posHashList, posHashListSize, tt, ht);
+        } else {
+            ht.age();
+            search.setRootPosition(pos, posHashList, posHashListSize);
+            search.shiftKillers(gamePly - lastGamePly);
+        }
+        lastGamePly = gamePly;
+        search.setStrength(strength, 0);
+        search.setNumThreads(numThreads);
+        search.setListener(null);
+        return search;
+    }
+
+    /** Return the number of nodes searched by the last getCommand call. */
+    public long getLastSearchNodes() {
+        return (search != null) ? search.getTotalNodes() : 0;
+    }
+
+    /** Convert the search result to a command string and remember the expected reply. */
+    private String moveResult(Position pos, Move bestM, long[] posHashList, int posHashListSize) {
         String strMove = TextIO.moveToString(pos, bestM, false);
 
         // Claim draw if appropriate
@@ -129,9 +238,107 @@ public class ComputerPlayer implements Player {
             if (!drawClaim.isEmpty())
                 strMove = drawClaim;
         }
+
+        // Remember expected opponent reply for pondering
+        ArrayList<Move> pv = tt.extractPVMoves(pos, bestM);
+        synchronized (ponderLock) {
+            ponderMove = (pv.size() > 1) ? pv.get(1) : null;
+        }
         return strMove;
     }
-    
+
+    /** Return the expected opponent reply to the last computer move, or null if not known. */
+    public Move getPonderMove() {
+        synchronized (ponderLock) {
+            return (ponderMove != null) ? new Move(ponderMove) : null;
+        }
+    }
+
+    /**
+     * Search the position after the expected opponent reply while the opponent is thinking.
+     * If the opponent plays the expected move, the next getCommand call continues this search
+     * with normal time limits, otherwise it is stopped and a new search is started.
+     * This method blocks until the ponder search ends, so it must be called from a
+     * separate thread.
+     * @param pos     The current position, where the opponent is to move.
+     * @param history Positions before pos, as for getCommand.
+     */
+    public void ponder(Position pos, List<Position> history) {
+        Move m;
+        synchronized (ponderLock) {
+            m = ponderMove;
+            ponderMove = null;
+            if ((m == null) || (ponderSearch != null) || (strength < 1000) || randomMode)
+                return;
+            ponderCancelled = false;
+        }
+        Position prevPos = new Position(pos);
+        pos = new Position(pos);
+        MoveGen moveGen = new MoveGen();
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        boolean legal = moves.indexOf(m) >= 0;
+        if (!legal)
+            return;
+        pos.makeMove(m, new UndoInfo());
+        moves = moveGen.legalMoves(pos);
+        if (moves.size == 0)
+            return;
+
+        Search sc;
+        synchronized (ponderLock) {
+            if (ponderCancelled)
+                return;
+            tt.nextGeneration();
+            sc = prepareSearch(pos, history, prevPos);
+            sc.scoreMoveList(moves, 0);
+            sc.timeLimit(-1, -1);
+            ponderSearch = sc;
+            ponderPos = new Position(pos);
+            ponderPosHashList = posHashList;
+            ponderPosHashListSize = history.size() + 1;
+            ponderBestMove = null;
+            ponderRunning = true;
+        }
+        Move bestM = sc.iterativeDeepening(moves, maxDepth, maxNodes, false);
+        synchronized (ponderLock) {
+            ponderBestMove = bestM;
+            ponderRunning = false;
+            ponderLock.notifyAll();
+        }
+    }
+
+    /** Stop a running ponder search and discard its result. */
+    public void stopPonder() {
+        synchronized (ponderLock) {
+            ponderMove = null;
+            ponderCancelled = true;
+            if (ponderSearch != null) {
+                if (ponderRunning) {
+                    ponderSearch.timeLimit(0, 0);
+                    waitForPonderSearch();
+                }
+                ponderSearch = null;
+                ponderPos = null;
+                ponderPosHashList = null;
+                ponderBestMove = null;
+            }
+        }
+    }
+
+    /** Wait until the ponder search has finished. Must be called with ponderLock held. */
+    private void waitForPonderSearch() {
+        boolean interrupted = false;
+        while (ponderRunning) {
+            try {
+                ponderLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
     /** Check if a draw claim is allowed, possibly after playing "move".
      * @param move The move that may have to be made before claiming draw.
      * @return The draw string that claims the draw, or empty string if draw claim not valid.
@@ -193,10 +400,10 @@ public class ComputerPlayer implements Player {
         tt.nextGeneration();
         History ht = new History();
         Search sc = new Search(pos, posHashList, 0, tt, ht);
+        sc.setNumThreads(numThreads);
         
         // Determine all legal moves
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         sc.scoreMoveList(moves, 0);
 
         // Find best move using iterative deepening
@@ -226,13 +433,13 @@ public class ComputerPlayer implements Player {
 
         int sum = 0;
         for (int mi = 0; mi < moves.size; mi++) {
-            sum += moveProbWeight(moves.m[mi].score, bestScore);
+            sum += moveProbWeight(moves.score[mi], bestScore);
         }
         int rnd = rndGen.nextInt(sum);
         for (int mi = 0; mi < moves.size; mi++) {
-            int weight = moveProbWeight(moves.m[mi].score, bestScore);
+            int weight = moveProbWeight(moves.score[mi], bestScore);
             if (rnd < weight) {
-                return moves.m[mi];
+                return moves.getMove(mi);
             }
             rnd -= weight;
         }
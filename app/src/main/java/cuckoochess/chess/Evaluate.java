@@ -197,26 +197,6 @@ public class Evaluate {
     private static final int[] bishMobScore = {-15,-10,-6,-2,2,6,10,13,16,18,20,22,23,24};
     private static final int[] queenMobScore = {-5,-4,-3,-2,-1,0,1,2,3,4,5,6,7,8,9,9,10,10,10,10,10,10,10,10,10,10,10,10};
 
-    private static final class PawnHashData {
-        long key;
-        int score;         // Positive score means good for white
-        short passedBonusW;
-        short passedBonusB;
-        long passedPawnsW;     // The most advanced passed pawns for each file
-        long passedPawnsB;
-    }
-    private static final PawnHashData[] pawnHash;
-    static {
-        final int numEntries = 1<<16;
-        pawnHash = new PawnHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            PawnHashData phd = new PawnHashData();
-            phd.key = -1; // Non-zero to avoid collision for positions with no pawns
-            phd.score = 0;
-            pawnHash[i] = phd;
-        }
-    }
-
     private static byte[] kpkTable = null;
     private static byte[] krkpTable = null;
 
@@ -225,9 +205,138 @@ public class Evaluate {
     private int wKingAttacks, bKingAttacks; // Number of attacks close to white/black king
     private long wAttacksBB, bAttacksBB;
     private long wPawnAttacks, bPawnAttacks; // Squares attacked by white/black pawns
+    private int mtrlType;                    // Endgame evaluator for the current position, MT_*
+
+    /** Default evaluation cache size, as log2 of the number of entries. */
+    public static final int DEFAULT_EVAL_CACHE_LOG_SIZE = 15;
+    /** Default pawn hash table size, as log2 of the number of entries. */
+    public static final int DEFAULT_PAWN_HASH_LOG_SIZE = 14;
+    /** Default king safety hash table size, as log2 of the number of entries. */
+    public static final int DEFAULT_KING_SAFETY_HASH_LOG_SIZE = 13;
+    /** Default material hash table size, as log2 of the number of entries. */
+    public static final int DEFAULT_MATERIAL_HASH_LOG_SIZE = 10;
+
+    // Evaluation cache. Each entry holds the upper 32 bits of the position hash key
+    // in the upper half and the evaluation score in the lower half.
+    private long[] evalCache;
+
+    // Pawn hash table, indexed by the pawn zobrist hash. Each entry uses PH_SIZE longs:
+    // the key, the most advanced white and black passed pawns for each file, and
+    // (score << 32) | (passedBonusW << 16) | passedBonusB, with 16 bit passed pawn bonuses.
+    // Scores are positive when good for white.
+    private static final int PH_SIZE = 4;
+    private long[] pawnHash;
+    private int pawnHashMask;
+
+    // King safety hash table, indexed by the pawn and king zobrist hashes.
+    // Each entry is the key followed by the score.
+    private long[] kingSafetyHash;
+    private int kingSafetyHashMask;
+
+    // Material hash table, indexed by the material signature. Each entry is the key
+    // followed by (tradeBonus << 32) | mtrlType.
+    private long[] mtrlHash;
+    private int mtrlHashShift;
+
+    // Endgame evaluators, selected from the material signature
+    private static final int MT_NONE = 0;       // Too much material for endgame knowledge
+    private static final int MT_DRAW = 1;       // Minor piece vs minor piece, no pawns
+    private static final int MT_KQKP = 2;
+    private static final int MT_KPKQ = 3;
+    private static final int MT_KRKP = 4;
+    private static final int MT_KPKR = 5;
+    private static final int MT_KRKB = 6;
+    private static final int MT_KBKR = 7;
+    private static final int MT_GENERAL = 8;    // Rules that also depend on the score
+
+    private final Stats stats = new Stats();
+
+    /**
+     * Evaluation statistics. Each Evaluate object is only used by one thread,
+     * so the counters are exact.
+     */
+    public static final class Stats {
+        public long evalCacheProbes;    // Number of evaluation cache probes
+        public long evalCacheHits;      // Number of probes that found the position
+        public long lazyEvalCalls;      // Number of evalPos(pos, alpha, beta) calls
+        public long lazyEvalExits;      // Number of lazy calls that returned the inexpensive score
+        public long pawnHashProbes;     // Number of pawn hash table probes
+        public long pawnHashHits;       // Number of probes that found the pawn structure
+        public long kingSafetyProbes;   // Number of king safety hash table probes
+        public long kingSafetyHits;     // Number of probes that found the king/pawn configuration
+        public long mtrlHashProbes;     // Number of material hash table probes
+        public long mtrlHashHits;       // Number of probes that found the material configuration
+
+        /** Add the counters in "other" to this object. */
+        public final void add(Stats other) {
+            evalCacheProbes += other.evalCacheProbes;
+            evalCacheHits += other.evalCacheHits;
+            lazyEvalCalls += other.lazyEvalCalls;
+            lazyEvalExits += other.lazyEvalExits;
+            pawnHashProbes += other.pawnHashProbes;
+            pawnHashHits += other.pawnHashHits;
+            kingSafetyProbes += other.kingSafetyProbes;
+            kingSafetyHits += other.kingSafetyHits;
+            mtrlHashProbes += other.mtrlHashProbes;
+            mtrlHashHits += other.mtrlHashHits;
+        }
+
+        /** Set all counters to zero. */
+        public final void clear() {
+            evalCacheProbes = evalCacheHits = 0;
+            lazyEvalCalls = lazyEvalExits = 0;
+            pawnHashProbes = pawnHashHits = 0;
+            kingSafetyProbes = kingSafetyHits = 0;
+            mtrlHashProbes = mtrlHashHits = 0;
+        }
+
+        /** Return the percentage of evaluation cache probes that found the position. */
+        public final double evalCacheHitRate() {
+            return percent(evalCacheHits, evalCacheProbes);
+        }
+
+        /** Return the percentage of lazy evaluation calls that returned early. */
+        public final double lazyEvalExitRate() {
+            return percent(lazyEvalExits, lazyEvalCalls);
+        }
+
+        /** Return the percentage of pawn hash probes that found the pawn structure. */
+        public final double pawnHashHitRate() {
+            return percent(pawnHashHits, pawnHashProbes);
+        }
+
+        /** Return the percentage of king safety hash probes that found the position. */
+        public final double kingSafetyHitRate() {
+            return percent(kingSafetyHits, kingSafetyProbes);
+        }
+
+        /** Return the percentage of material hash probes that found the material configuration. */
+        public final double mtrlHashHitRate() {
+            return percent(mtrlHashHits, mtrlHashProbes);
+        }
+
+        private static double percent(long n, long total) {
+            return (total > 0) ? n * 100.0 / total : 0;
+        }
+    }
 
     /** Constructor. */
     public Evaluate() {
+        this(DEFAULT_EVAL_CACHE_LOG_SIZE, DEFAULT_PAWN_HASH_LOG_SIZE, DEFAULT_KING_SAFETY_HASH_LOG_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param cacheLogSize       Evaluation cache size, as log2 of the number of entries.
+     *                           A negative value disables the cache.
+     * @param pawnHashLogSize    Pawn hash table size, as log2 of the number of entries.
+     * @param kingSafetyLogSize  King safety hash table size, as log2 of the number of entries.
+     */
+    public Evaluate(int cacheLogSize, int pawnHashLogSize, int kingSafetyLogSize) {
+        setCacheSize(cacheLogSize);
+        setPawnHashSize(pawnHashLogSize);
+        setKingSafetyHashSize(kingSafetyLogSize);
+        setMaterialHashSize(DEFAULT_MATERIAL_HASH_LOG_SIZE);
         if (kpkTable == null)
             kpkTable = readTable("/kpk.bitbase", 2*32*64*48/8);
         if (krkpTable == null)
@@ -257,6 +366,89 @@ public class Evaluate {
      *         Positive values are good for the side to make the next move.
      */
     final public int evalPos(Position pos) {
+        if (evalCache == null)
+            return computeEval(pos);
+        final long key = pos.zobristHash();
+        final int idx = (int)key & (evalCache.length - 1);
+        final long entry = evalCache[idx];
+        stats.evalCacheProbes++;
+        if (((entry ^ key) & 0xffffffff00000000L) == 0) {
+            stats.evalCacheHits++;
+            return (int)entry;
+        }
+        final int score = computeEval(pos);
+        evalCache[idx] = (key & 0xffffffff00000000L) | (score & 0xffffffffL);
+        return score;
+    }
+
+    /**
+     * Set the evaluation cache size to 2^logSize entries and clear the cache.
+     * A negative logSize disables the cache.
+     */
+    public final void setCacheSize(int logSize) {
+        evalCache = (logSize >= 0) ? new long[1 << logSize] : null;
+        clearCache();
+    }
+
+    /** Remove all entries from the evaluation cache. */
+    public final void clearCache() {
+        if (evalCache != null) {
+            // An all-zero entry would match positions whose hash key has zero upper bits.
+            for (int i = 0; i < evalCache.length; i++)
+                evalCache[i] = ~((long)i << 32);
+        }
+    }
+
+    /** Set the pawn hash table size to 2^logSize entries and clear the table. */
+    public final void setPawnHashSize(int logSize) {
+        final int numEntries = 1 << Math.max(logSize, 0);
+        pawnHash = new long[numEntries * PH_SIZE];
+        pawnHashMask = numEntries - 1;
+        for (int i = 0; i < pawnHash.length; i += PH_SIZE)
+            pawnHash[i] = -1; // Non-zero to avoid collision for positions with no pawns
+    }
+
+    /** Set the king safety hash table size to 2^logSize entries and clear the table. */
+    public final void setKingSafetyHashSize(int logSize) {
+        final int numEntries = 1 << Math.max(logSize, 0);
+        kingSafetyHash = new long[numEntries * 2];
+        kingSafetyHashMask = numEntries - 1;
+        for (int i = 0; i < kingSafetyHash.length; i += 2)
+            kingSafetyHash[i] = -1;
+    }
+
+    /** Set the material hash table size to 2^logSize entries and clear the table. */
+    public final void setMaterialHashSize(int logSize) {
+        logSize = Math.max(logSize, 1);
+        mtrlHash = new long[2 << logSize];
+        mtrlHashShift = 64 - logSize;
+        for (int i = 0; i < mtrlHash.length; i += 2)
+            mtrlHash[i] = -1; // Not a valid material signature
+    }
+
+    /** Copy the current statistics to "stats". */
+    public final void getStats(Stats stats) {
+        stats.clear();
+        stats.add(this.stats);
+    }
+
+    /** Reset all statistics counters. */
+    public final void resetStats() {
+        stats.clear();
+    }
+
+    /** Evaluate a position without using the evaluation cache. */
+    private int computeEval(Position pos) {
+        int score = cheapEval(pos);
+        return fullEval(pos, score);
+    }
+
+    /**
+     * Compute the inexpensive evaluation terms: material, piece square tables, pawn
+     * structure, trade bonus and castling. Also sets up the king zone and pawn attack
+     * state needed by fullEval(). Positive values are good for white.
+     */
+    private int cheapEval(Position pos) {
         int score = pos.wMtrl - pos.bMtrl;
 
         wKingAttacks = bKingAttacks = 0;
@@ -273,9 +465,16 @@ public class Evaluate {
 
         score += pieceSquareEval(pos);
         score += pawnBonus(pos);
-        score += tradeBonus(pos);
+        score += materialEval(pos);
         score += castleBonus(pos);
+        return score;
+    }
 
+    /**
+     * Add the remaining evaluation terms to the result of cheapEval().
+     * @return The evaluation score from the point of view of the side to move.
+     */
+    private int fullEval(Position pos, int score) {
         score += rookBonus(pos);
         score += bishopEval(pos, score);
         score += threatBonus(pos);
@@ -287,6 +486,65 @@ public class Evaluate {
         return score;
     }
 
+    /**
+     * Default lazy evaluation margin. If the inexpensive evaluation terms are at least this
+     * far outside the alpha/beta window, the remaining terms are unlikely to bring the score
+     * back inside the window. In non-endgame positions from tactical games, the remaining
+     * terms changed the score by less than this in 99% of the positions.
+     */
+    public static final int DEFAULT_LAZY_EVAL_MARGIN = 160;
+
+    private int lazyEvalMargin = DEFAULT_LAZY_EVAL_MARGIN;
+    private boolean lastEvalLazy = false;
+
+    /**
+     * Static evaluation of a position, for use when only the relation of the score to
+     * an alpha/beta window matters. If the inexpensive evaluation terms are far enough
+     * outside the window, their sum is returned without computing the remaining terms.
+     * Such approximate scores are not stored in the evaluation cache.
+     * @return The evaluation score, measured in centipawns.
+     *         Positive values are good for the side to make the next move.
+     */
+    final public int evalPos(Position pos, int alpha, int beta) {
+        lastEvalLazy = false;
+        stats.lazyEvalCalls++;
+        long key = 0;
+        int idx = 0;
+        if (evalCache != null) {
+            key = pos.zobristHash();
+            idx = (int)key & (evalCache.length - 1);
+            final long entry = evalCache[idx];
+            stats.evalCacheProbes++;
+            if (((entry ^ key) & 0xffffffff00000000L) == 0) {
+                stats.evalCacheHits++;
+                return (int)entry;
+            }
+        }
+        int score = cheapEval(pos);
+        if ((lazyEvalMargin >= 0) && (mtrlType == MT_NONE)) { // No endGameEval() adjustment
+            int stmScore = pos.whiteMove ? score : -score;
+            if ((stmScore - lazyEvalMargin >= beta) || (stmScore + lazyEvalMargin <= alpha)) {
+                stats.lazyEvalExits++;
+                lastEvalLazy = true;
+                return stmScore;
+            }
+        }
+        score = fullEval(pos, score);
+        if (evalCache != null)
+            evalCache[idx] = (key & 0xffffffff00000000L) | (score & 0xffffffffL);
+        return score;
+    }
+
+    /** Return true if the last evalPos(pos, alpha, beta) call returned an approximate score. */
+    public final boolean lastEvalWasLazy() {
+        return lastEvalLazy;
+    }
+
+    /** Set the lazy evaluation margin. A negative value disables lazy evaluation. */
+    public final void setLazyEvalMargin(int margin) {
+        lazyEvalMargin = margin;
+    }
+
     /** Compute white_material - black_material. */
     static int material(Position pos) {
         return pos.wMtrl - pos.bMtrl;
@@ -402,8 +660,54 @@ public class Evaluate {
         return score;
     }
 
+    /**
+     * Look up the material signature in the material hash table. Sets mtrlType.
+     * @return The material imbalance score (tradeBonus). Positive values are good for white.
+     */
+    private int materialEval(Position pos) {
+        final long key = pos.materialKey();
+        final int idx = (int)((key * 0x9E3779B97F4A7C15L) >>> mtrlHashShift) * 2;
+        stats.mtrlHashProbes++;
+        if (mtrlHash[idx] != key) {
+            mtrlHash[idx] = key;
+            mtrlHash[idx + 1] = ((long)tradeBonus(pos) << 32) | materialType(pos);
+        } else {
+            stats.mtrlHashHits++;
+        }
+        final long data = mtrlHash[idx + 1];
+        mtrlType = (int)data;
+        return (int)(data >> 32);
+    }
+
+    /** Decide which endgame evaluator applies for the material in a position. */
+    private static int materialType(Position pos) {
+        if (pos.wMtrl + pos.bMtrl > 6 * rV)
+            return MT_NONE;
+        final int wMtrlNoPawns = pos.wMtrl - pos.wMtrlPawns;
+        final int bMtrlNoPawns = pos.bMtrl - pos.bMtrlPawns;
+        if ((pos.wMtrlPawns + pos.bMtrlPawns == 0) && (wMtrlNoPawns < rV) && (bMtrlNoPawns < rV))
+            return MT_DRAW;
+        if ((pos.wMtrl == qV) && (pos.bMtrl == pV) && (pos.pieceTypeBB[Piece.WQUEEN] != 0))
+            return MT_KQKP;
+        if ((pos.wMtrl == rV) && (pos.pieceTypeBB[Piece.WROOK] != 0)) {
+            if (pos.bMtrl == pV)
+                return MT_KRKP;
+            if ((pos.bMtrl == bV) && (pos.pieceTypeBB[Piece.BBISHOP] != 0))
+                return MT_KRKB;
+        }
+        if ((pos.bMtrl == qV) && (pos.wMtrl == pV) && (pos.pieceTypeBB[Piece.BQUEEN] != 0))
+            return MT_KPKQ;
+        if ((pos.bMtrl == rV) && (pos.pieceTypeBB[Piece.BROOK] != 0)) {
+            if (pos.wMtrl == pV)
+                return MT_KPKR;
+            if ((pos.wMtrl == bV) && (pos.pieceTypeBB[Piece.WBISHOP] != 0))
+                return MT_KBKR;
+        }
+        return MT_GENERAL;
+    }
+
     /** Implement the "when ahead trade pieces, when behind trade pawns" rule. */
-    private int tradeBonus(Position pos) {
+    private static int tradeBonus(Position pos) {
         final int wM = pos.wMtrl;
         final int bM = pos.bMtrl;
         final int wPawn = pos.wMtrlPawns;
@@ -463,20 +767,26 @@ public class Evaluate {
     }
 
     private int pawnBonus(Position pos) {
-        long key = pos.pawnZobristHash();
-        PawnHashData phd = pawnHash[(int)key & (pawnHash.length - 1)];
-        if (phd.key != key)
-            computePawnHashData(pos, phd);
-        int score = phd.score;
+        final long key = pos.pawnZobristHash();
+        final int idx = ((int)key & pawnHashMask) * PH_SIZE;
+        stats.pawnHashProbes++;
+        if (pawnHash[idx] != key)
+            computePawnHashData(pos, idx);
+        else
+            stats.pawnHashHits++;
+        final long data = pawnHash[idx + 3];
+        int score = (int)(data >> 32);
+        final int passedBonusW = (short)(data >>> 16);
+        final int passedBonusB = (short)data;
 
         final int hiMtrl = qV + rV;
-        score += interpolate(pos.bMtrl - pos.bMtrlPawns, 0, 2 * phd.passedBonusW, hiMtrl, phd.passedBonusW);
-        score -= interpolate(pos.wMtrl - pos.wMtrlPawns, 0, 2 * phd.passedBonusB, hiMtrl, phd.passedBonusB);
+        score += interpolate(pos.bMtrl - pos.bMtrlPawns, 0, 2 * passedBonusW, hiMtrl, passedBonusW);
+        score -= interpolate(pos.wMtrl - pos.wMtrlPawns, 0, 2 * passedBonusB, hiMtrl, passedBonusB);
 
         // Passed pawns are more dangerous if enemy king is far away
         int bestWPawnDist = 8;
         int bestWPromSq = -1;
-        long m = phd.passedPawnsW;
+        long m = pawnHash[idx + 1];
         if (m != 0) {
             int mtrlNoPawns = pos.bMtrl - pos.bMtrlPawns;
             if (mtrlNoPawns < hiMtrl) {
@@ -506,7 +816,7 @@ public class Evaluate {
         }
         int bestBPawnDist = 8;
         int bestBPromSq = -1;
-        m = phd.passedPawnsB;
+        m = pawnHash[idx + 2];
         if (m != 0) {
             int mtrlNoPawns = pos.wMtrl - pos.wMtrlPawns;
             if (mtrlNoPawns < hiMtrl) {
@@ -559,8 +869,8 @@ public class Evaluate {
         return score;
     }
 
-    /** Compute pawn hash data for pos. */
-    private void computePawnHashData(Position pos, PawnHashData ph) {
+    /** Compute pawn hash data for pos and store it in the pawn hash entry starting at idx. */
+    private void computePawnHashData(Position pos, int idx) {
         int score = 0;
 
         // Evaluate double pawns and pawn islands
@@ -647,12 +957,10 @@ public class Evaluate {
 //            passedBonusB += 13 * Long.bitCount(passedPawnsB & mask);
 //        }
 
-        ph.key = pos.pawnZobristHash();
-        ph.score = score;
-        ph.passedBonusW = (short)passedBonusW;
-        ph.passedBonusB = (short)passedBonusB;
-        ph.passedPawnsW = passedPawnsW;
-        ph.passedPawnsB = passedPawnsB;
+        pawnHash[idx] = pos.pawnZobristHash();
+        pawnHash[idx + 1] = passedPawnsW;
+        pawnHash[idx + 2] = passedPawnsB;
+        pawnHash[idx + 3] = ((long)score << 32) | ((passedBonusW & 0xffffL) << 16) | (passedBonusB & 0xffffL);
     }
 
     /** Compute rook bonus. Rook on open/half-open file. */
@@ -866,26 +1174,11 @@ public class Evaluate {
         return kSafety;
     }
 
-    private static final class KingSafetyHashData {
-        long key;
-        int score;
-    }
-    private static final KingSafetyHashData[] kingSafetyHash;
-    static {
-        final int numEntries = 1 << 15;
-        kingSafetyHash = new KingSafetyHashData[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            KingSafetyHashData ksh = new KingSafetyHashData();
-            ksh.key = -1;
-            ksh.score = 0;
-            kingSafetyHash[i] = ksh;
-        }
-    }
-
     private int kingSafetyKPPart(Position pos) {
         final long key = pos.pawnZobristHash() ^ pos.kingZobristHash();
-        KingSafetyHashData ksh = kingSafetyHash[(int)key & (kingSafetyHash.length - 1)];
-        if (ksh.key != key) {
+        final int idx = ((int)key & kingSafetyHashMask) * 2;
+        stats.kingSafetyProbes++;
+        if (kingSafetyHash[idx] != key) {
             int score = 0;
             long wPawns = pos.pieceTypeBB[Piece.WPAWN];
             long bPawns = pos.pieceTypeBB[Piece.BPAWN];
@@ -949,81 +1242,83 @@ public class Evaluate {
                 final int kSafety = (safety - 9) * 15 - halfOpenFiles;
                 score -= kSafety;
             }
-            ksh.key = key;
-            ksh.score = score;
+            kingSafetyHash[idx] = key;
+            kingSafetyHash[idx + 1] = score;
+        } else {
+            stats.kingSafetyHits++;
         }
-        return ksh.score;
+        return (int)kingSafetyHash[idx + 1];
     }
 
-    /** Implements special knowledge for some endgame situations. */
+    /**
+     * Implements special knowledge for some endgame situations. The evaluator
+     * is selected by mtrlType, which is set by materialEval().
+     */
     private int endGameEval(Position pos, int oldScore) {
         int score = oldScore;
-        if (pos.wMtrl + pos.bMtrl > 6 * rV)
+        switch (mtrlType) {
+        case MT_NONE:
             return score;
-        final int wMtrlPawns = pos.wMtrlPawns;
-        final int bMtrlPawns = pos.bMtrlPawns;
-        final int wMtrlNoPawns = pos.wMtrl - wMtrlPawns;
-        final int bMtrlNoPawns = pos.bMtrl - bMtrlPawns;
-
-        boolean handled = false;
-        if ((wMtrlPawns + bMtrlPawns == 0) && (wMtrlNoPawns < rV) && (bMtrlNoPawns < rV)) {
+        case MT_DRAW:
             // King + minor piece vs king + minor piece is a draw
             return 0;
-        }
-        if (!handled && (pos.wMtrl == qV) && (pos.bMtrl == pV) && (pos.pieceTypeBB[Piece.WQUEEN] != 0)) {
+        case MT_KQKP: {
             int wk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WKING]);
             int wq = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WQUEEN]);
             int bk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BKING]);
             int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
-            score = evalKQKP(wk, wq, bk, bp, pos.whiteMove);
-            handled = true;
-        }
-        if (!handled && (pos.wMtrl == rV) && (pos.pieceTypeBB[Piece.WROOK] != 0)) {
-            if (pos.bMtrl == pV) {
-                int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
-                score = krkpEval(pos.getKingSq(true), pos.getKingSq(false),
-                        bp, pos.whiteMove);
-                handled = true;
-            } else if ((pos.bMtrl == bV) && (pos.pieceTypeBB[Piece.BBISHOP] != 0)) {
-                score /= 8;
-                final int kSq = pos.getKingSq(false);
-                final int x = Position.getX(kSq);
-                final int y = Position.getY(kSq);
-                if ((pos.pieceTypeBB[Piece.BBISHOP] & BitBoard.maskDarkSq) != 0) {
-                    score += (7 - distToH1A8[7-y][7-x]) * 7;
-                } else {
-                    score += (7 - distToH1A8[7-y][x]) * 7;
-                }
-                handled = true;
-            }
+            return evalKQKP(wk, wq, bk, bp, pos.whiteMove);
         }
-        if (!handled && (pos.bMtrl == qV) && (pos.wMtrl == pV) && (pos.pieceTypeBB[Piece.BQUEEN] != 0)) {
+        case MT_KPKQ: {
             int bk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BKING]);
             int bq = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BQUEEN]);
             int wk = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WKING]);
             int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
-            score = -evalKQKP(63-bk, 63-bq, 63-wk, 63-wp, !pos.whiteMove);
-            handled = true;
+            return -evalKQKP(63-bk, 63-bq, 63-wk, 63-wp, !pos.whiteMove);
         }
-        if (!handled && (pos.bMtrl == rV) && (pos.pieceTypeBB[Piece.BROOK] != 0)) {
-            if (pos.wMtrl == pV) {
-                int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
-                score = -krkpEval(63-pos.getKingSq(false), 63-pos.getKingSq(true),
-                        63-wp, !pos.whiteMove);
-                handled = true;
-            } else if ((pos.wMtrl == bV) && (pos.pieceTypeBB[Piece.WBISHOP] != 0)) {
-                score /= 8;
-                final int kSq = pos.getKingSq(true);
-                final int x = Position.getX(kSq);
-                final int y = Position.getY(kSq);
-                if ((pos.pieceTypeBB[Piece.WBISHOP] & BitBoard.maskDarkSq) != 0) {
-                    score -= (7 - distToH1A8[7-y][7-x]) * 7;
-                } else {
-                    score -= (7 - distToH1A8[7-y][x]) * 7;
-                }
-                handled = true;
+        case MT_KRKP: {
+            int bp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.BPAWN]);
+            return krkpEval(pos.getKingSq(true), pos.getKingSq(false),
+                            bp, pos.whiteMove);
+        }
+        case MT_KPKR: {
+            int wp = BitBoard.numberOfTrailingZeros(pos.pieceTypeBB[Piece.WPAWN]);
+            return -krkpEval(63-pos.getKingSq(false), 63-pos.getKingSq(true),
+                             63-wp, !pos.whiteMove);
+        }
+        case MT_KRKB: {
+            score /= 8;
+            final int kSq = pos.getKingSq(false);
+            final int x = Position.getX(kSq);
+            final int y = Position.getY(kSq);
+            if ((pos.pieceTypeBB[Piece.BBISHOP] & BitBoard.maskDarkSq) != 0) {
+                score += (7 - distToH1A8[7-y][7-x]) * 7;
+            } else {
+                score += (7 - distToH1A8[7-y][x]) * 7;
             }
+            return score;
+        }
+        case MT_KBKR: {
+            score /= 8;
+            final int kSq = pos.getKingSq(true);
+            final int x = Position.getX(kSq);
+            final int y = Position.getY(kSq);
+            if ((pos.pieceTypeBB[Piece.WBISHOP] & BitBoard.maskDarkSq) != 0) {
+                score -= (7 - distToH1A8[7-y][7-x]) * 7;
+            } else {
+                score -= (7 - distToH1A8[7-y][x]) * 7;
+            }
+            return score;
         }
+        default:
+            break;
+        }
+
+        final int wMtrlPawns = pos.wMtrlPawns;
+        final int bMtrlPawns = pos.bMtrlPawns;
+        final int wMtrlNoPawns = pos.wMtrl - wMtrlPawns;
+        final int bMtrlNoPawns = pos.bMtrl - bMtrlPawns;
+        boolean handled = false;
         if (!handled && (score > 0)) {
             if ((wMtrlPawns == 0) && (wMtrlNoPawns <= bMtrlNoPawns + bV)) {
                 if (wMtrlNoPawns < rV) {
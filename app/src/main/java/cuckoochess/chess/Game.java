@@ -145,8 +145,7 @@ public class Game {
      * Get the current state of the game.
      */
     public GameState getGameState() {
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         if (moves.size == 0) {
             if (MoveGen.inCheck(pos)) {
                 return pos.whiteMove ? GameState.BLACK_MATE : GameState.WHITE_MATE;
@@ -275,13 +274,15 @@ public class Game {
                 System.out.printf("Number format exception: %s\n", nfe.getMessage());
                 return false;
             }
+        } else if (moveStr.equals("perft suite")) {
+            newPerft().runTestSuite(Integer.MAX_VALUE);
+            return true;
         } else if (moveStr.startsWith("perft ")) {
             try {
                 String depthStr = moveStr.substring(moveStr.indexOf(" ") + 1);
                 int depth = Integer.parseInt(depthStr);
-                MoveGen moveGen = new MoveGen();
                 long t0 = System.currentTimeMillis();
-                long nodes = perfT(moveGen, pos, depth);
+                long nodes = newPerft().perft(pos, depth);
                 long t1 = System.currentTimeMillis();
                 System.out.printf("perft(%d) = %d, t=%.3fs\n", depth, nodes, (t1 - t0)*1e-3);
             }
@@ -290,6 +291,24 @@ public class Game {
                 return false;
             }
             return true;
+        } else if (moveStr.startsWith("divide ")) {
+            try {
+                String depthStr = moveStr.substring(moveStr.indexOf(" ") + 1);
+                int depth = Integer.parseInt(depthStr);
+                MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+                long[] counts = newPerft().divide(pos, depth);
+                long nodes = 0;
+                for (int mi = 0; mi < counts.length; mi++) {
+                    System.out.printf("%s: %d\n", TextIO.moveToUCIString(moves.getMove(mi)), counts[mi]);
+                    nodes += counts[mi];
+                }
+                System.out.printf("moves=%d nodes=%d\n", counts.length, nodes);
+            }
+            catch (NumberFormatException nfe) {
+                System.out.printf("Number format exception: %s\n", nfe.getMessage());
+                return false;
+            }
+            return true;
         } else {
             return false;
         }
@@ -542,20 +561,26 @@ public class Game {
         return false;
     }
 
+    /** Create a perft calculator using all available processors. */
+    private static Perft newPerft() {
+        return new Perft(20, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Single threaded perft without hash table. Reference implementation for Perft. */
     static long perfT(MoveGen moveGen, Position pos, int depth) {
         if (depth == 0)
             return 1;
         long nodes = 0;
-        MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
         if (depth == 1) {
             int ret = moves.size;
             moveGen.returnMoveList(moves);
             return ret;
         }
         UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            m.decode(moves.m[mi]);
             pos.makeMove(m, ui);
             nodes += perfT(moveGen, pos, depth - 1);
             pos.unMakeMove(m, ui);
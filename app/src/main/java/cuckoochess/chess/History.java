@@ -18,64 +18,125 @@
 
 package cuckoochess.chess;
 
-/** Implements the relative history heuristic. */
+/**
+ * Implements history heuristics for ordering quiet moves. There are three tables:
+ *   The main history table, indexed by moving piece and to square.
+ *   The continuation history table, indexed by the piece and to square of the
+ *   previous move, and by the piece type and to square of the current move. The
+ *   current piece is always of the other color than the previous piece, so the
+ *   color is not needed in the index.
+ *   The counter move table, giving the move that last refuted the previous move.
+ * The previous move is called the context of the current move.
+ *
+ * History values are updated with a "gravity" formula, which moves the value
+ * towards +-MAX_VALUE by an amount that shrinks as the value approaches the limit.
+ * This keeps the values bounded without rescaling, so they fit in short arrays.
+ */
 public final class History {
-    private int countSuccess[][];
-    private int countFail[][];
-    private int score[][];
+    /** Number of contexts, one for each piece type (except empty) and square. */
+    private static final int NUM_CONTEXTS = (Piece.nPieceTypes - 1) * 64;
+
+    /** Number of piece type and to square combinations for one color. */
+    private static final int NUM_TARGETS = (Piece.nPieceTypes - 1) / 2 * 64;
+
+    /** Approximate memory used by one History object, in bytes. */
+    public static final long MEMORY_SIZE = 2L * (Piece.nPieceTypes * 64 + NUM_CONTEXTS * NUM_TARGETS + NUM_CONTEXTS);
+
+    private static final int MAX_VALUE = 16384;
+    private static final int MAX_BONUS = 2048;
+
+    private short[] mainHist;     // [piece * 64 + to]
+    private short[] contHist;     // [context * NUM_TARGETS + target(piece, to)]
+    private short[] counterMoves; // [context], move in int encoded form
 
     public History() {
         init();
     }
 
     public void init() {
-        countSuccess = new int[Piece.nPieceTypes][64];
-        countFail = new int[Piece.nPieceTypes][64];
-        score = new int[Piece.nPieceTypes][64];
-        for (int p = 0; p < Piece.nPieceTypes; p++) {
-            for (int sq = 0; sq < 64; sq++) {
-                countSuccess[p][sq] = 0;
-                countFail[p][sq] = 0;
-                score[p][sq] = -1;
-            }
-        }
+        mainHist = new short[Piece.nPieceTypes * 64];
+        contHist = new short[NUM_CONTEXTS * NUM_TARGETS];
+        counterMoves = new short[NUM_CONTEXTS];
+    }
+
+    /**
+     * Reduce the weight of old statistics, so that results from new searches
+     * quickly dominate. Used instead of init() between moves in a game.
+     */
+    public final void age() {
+        for (int i = 0; i < mainHist.length; i++)
+            mainHist[i] /= 4;
+        for (int i = 0; i < contHist.length; i++)
+            contHist[i] /= 4;
+    }
+
+    /**
+     * Return the context for moves in position pos, given the move that led to pos.
+     * @return The context, or -1 if prevMove is null or a null move.
+     */
+    public static int getContext(Position pos, Move prevMove) {
+        if ((prevMove == null) || (prevMove.from == prevMove.to))
+            return -1;
+        int p = pos.getPiece(prevMove.to);
+        if (p == Piece.EMPTY)
+            return -1;
+        return (p - 1) * 64 + prevMove.to;
     }
 
     /** Record move as a success. */
-    public final void addSuccess(Position pos, Move m, int depth) {
-        int p = pos.getPiece(m.from);
-        int cnt = depth;
-        int val = countSuccess[p][m.to] + cnt;
-        if (val > 1000) {
-            val /= 2;
-            countFail[p][m.to] /= 2;
+    public final void addSuccess(Position pos, int move, int depth, int ctx) {
+        int p = pos.getPiece(Move.getFrom(move));
+        int to = Move.getTo(move);
+        int bonus = bonus(depth);
+        update(mainHist, p * 64 + to, bonus);
+        if (ctx >= 0) {
+            update(contHist, ctx * NUM_TARGETS + target(p, to), bonus);
+            counterMoves[ctx] = (short)move;
         }
-        countSuccess[p][m.to] = val;
-        score[p][m.to] = -1;
     }
 
     /** Record move as a failure. */
-    public final void addFail(Position pos, Move m, int depth) {
-        int p = pos.getPiece(m.from);
-        int cnt = depth;
-        countFail[p][m.to] += cnt;
-        score[p][m.to] = -1;
+    public final void addFail(Position pos, int move, int depth, int ctx) {
+        int p = pos.getPiece(Move.getFrom(move));
+        int to = Move.getTo(move);
+        int bonus = -bonus(depth);
+        update(mainHist, p * 64 + to, bonus);
+        if (ctx >= 0)
+            update(contHist, ctx * NUM_TARGETS + target(p, to), bonus);
     }
 
-    /** Get a score between 0 and 49, depending of the success/fail ratio of the move. */
-    public final int getHistScore(Position pos, Move m) {
-        int p = pos.getPiece(m.from);
-        int ret = score[p][m.to];
-        if (ret >= 0)
-            return ret;
-        int succ = countSuccess[p][m.to];
-        int fail = countFail[p][m.to];
-        if (succ + fail > 0) {
-            ret = succ * 49 / (succ + fail);
-        } else {
-            ret = 0;
-        }
-        score[p][m.to] = ret;
-        return ret;
+    /** Index of a piece and to square among the NUM_TARGETS combinations for one color. */
+    private static int target(int p, int to) {
+        return (Piece.makeWhite(p) - 1) * 64 + to;
+    }
+
+    private static int bonus(int depth) {
+        return Math.min(32 * (depth + 1) * (depth + 1), MAX_BONUS);
+    }
+
+    private static void update(short[] hist, int idx, int bonus) {
+        int val = hist[idx];
+        val += bonus - val * Math.abs(bonus) / MAX_VALUE;
+        hist[idx] = (short)val;
+    }
+
+    /**
+     * Get a score between 0 and 49, depending on the main and continuation
+     * history values of the move.
+     */
+    public final int getHistScore(Position pos, int move, int ctx) {
+        int p = pos.getPiece(Move.getFrom(move));
+        int to = Move.getTo(move);
+        int val = mainHist[p * 64 + to];
+        if (ctx >= 0)
+            val += contHist[ctx * NUM_TARGETS + target(p, to)];
+        else
+            val *= 2;
+        return (val + 2 * MAX_VALUE) * 49 / (4 * MAX_VALUE);
+    }
+
+    /** Get the counter move for a context, in int encoded form, or 0 if there is none. */
+    public final int getCounterMove(int ctx) {
+        return (ctx >= 0) ? counterMoves[ctx] & 0xffff : 0;
     }
 }
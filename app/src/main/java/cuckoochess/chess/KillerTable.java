@@ -37,11 +37,33 @@ public class KillerTable {
             ktList[i] = new KTEntry();
     }
 
-    /** Add a killer move to the table. Moves are replaced on an LRU basis. */
-    final public void addKiller(int ply, Move m) {
+    /**
+     * Move all entries "plies" steps towards ply 0. Used when the root position has advanced
+     * "plies" half-moves since the last search. Clears the table if plies is not positive.
+     */
+    final public void shift(int plies) {
+        final int n = ktList.length;
+        if ((plies <= 0) || (plies > n))
+            plies = n;
+        for (int i = 0; i < n; i++) {
+            KTEntry ent = ktList[i];
+            if (i + plies < n) {
+                KTEntry src = ktList[i + plies];
+                ent.move0 = src.move0;
+                ent.move1 = src.move1;
+            } else {
+                ent.move0 = ent.move1 = 0;
+            }
+        }
+    }
+
+    /**
+     * Add a killer move to the table. Moves are replaced on an LRU basis.
+     * @param move  The move in int encoded form, see Move.encode().
+     */
+    final public void addKiller(int ply, int move) {
         if (ply >= ktList.length)
             return;
-        int move = (short)(m.from + (m.to << 6) + (m.promoteTo << 12));
         KTEntry ent = ktList[ply];
         if (move != ent.move0) {
             ent.move1 = ent.move0;
@@ -49,6 +71,19 @@ public class KillerTable {
         }
     }
 
+    /**
+     * Get killer move number "idx" (0-3) for a ply, in the same order as the scores
+     * returned by getKillerScore(), ie primary and secondary hit at ply, then at ply - 2.
+     * @return The move in int encoded form, or 0 if no move.
+     */
+    final public int getKiller(int ply, int idx) {
+        int p = (idx < 2) ? ply : ply - 2;
+        if ((p < 0) || (p >= ktList.length))
+            return 0;
+        KTEntry ent = ktList[p];
+        return (idx & 1) == 0 ? ent.move0 : ent.move1;
+    }
+
     /**
      * Get a score for move m based on hits in the killer table.
      * The score is 4 for primary   hit at ply.
@@ -57,8 +92,7 @@ public class KillerTable {
      * The score is 1 for secondary hit at ply - 2.
      * The score is 0 otherwise.
      */
-    final public int getKillerScore(int ply, Move m) {
-        int move = (short)(m.from + (m.to << 6) + (m.promoteTo << 12));
+    final public int getKillerScore(int ply, int move) {
         if (ply < ktList.length) {
             KTEntry ent = ktList[ply];
             if (move == ent.move0) {
@@ -60,6 +60,36 @@ public class Move {
         this.score = m.score;
     }
 
+    /**
+     * Encode from, to and promoteTo in one int, as from + (to << 6) + (promoteTo << 12).
+     * This is the representation used in move lists, the killer table and the
+     * transposition table. The value 0 means no move.
+     */
+    public static int encode(int from, int to, int promoteTo) {
+        return from + (to << 6) + (promoteTo << 12);
+    }
+    public static int getFrom(int move) {
+        return move & 63;
+    }
+    public static int getTo(int move) {
+        return (move >> 6) & 63;
+    }
+    public static int getPromoteTo(int move) {
+        return (move >> 12) & 15;
+    }
+
+    /** Return this move in int encoded form. The score is not included. */
+    public final int encode() {
+        return encode(from, to, promoteTo);
+    }
+
+    /** Set from, to and promoteTo from an int encoded move. The score is not changed. */
+    public final void decode(int move) {
+        from      = move & 63;
+        to        = (move >> 6) & 63;
+        promoteTo = (move >> 12) & 15;
+    }
+
     public final void copyFrom(Move m) {
         from      = m.from;
         to        = m.to;
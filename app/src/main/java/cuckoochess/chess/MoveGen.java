@@ -26,18 +26,45 @@ public final class MoveGen {
         instance = new MoveGen();
     }
 
+    /**
+     * A list of moves. Moves are stored in int encoded form, see Move.encode(), and the
+     * move ordering scores are stored in a parallel array, so that no Move objects are
+     * needed in the search.
+     */
     public final static class MoveList {
-        public final Move[] m;
+        public final int[] m;
+        public final int[] score;
         public int size;
         MoveList() {
-            m = new Move[MAX_MOVES];
+            m = new int[MAX_MOVES];
+            score = new int[MAX_MOVES];
             this.size = 0;
         }
+
+        /** Return move number i as a new Move object. */
+        public final Move getMove(int i) {
+            int move = m[i];
+            return new Move(Move.getFrom(move), Move.getTo(move), Move.getPromoteTo(move), score[i]);
+        }
+
+        /** Return the index of a move in the list, or -1 if the move is not in the list. */
+        public final int indexOf(Move move) {
+            int code = move.encode();
+            for (int i = 0; i < size; i++)
+                if (m[i] == code)
+                    return i;
+            return -1;
+        }
+
         public final void filter(List<Move> searchMoves) {
             int used = 0;
-            for (int i = 0; i < size; i++)
-                if (searchMoves.contains(m[i]))
-                    m[used++] = m[i];
+            for (int i = 0; i < size; i++) {
+                if (searchMoves.contains(getMove(i))) {
+                    m[used] = m[i];
+                    score[used] = score[i];
+                    used++;
+                }
+            }
             size = used;
         }
     }
@@ -378,6 +405,209 @@ public final class MoveGen {
         return moveList;
     }
 
+    /**
+     * Generate and return a list of legal moves.
+     * Pinned pieces are restricted to the line through the king and the pinning piece,
+     * and when in check only moves that capture or block the checking piece are generated,
+     * so no make/unmake is needed to test the legality of the moves.
+     */
+    public final MoveList legalMoves(Position pos) {
+        return legalMoves(pos, checkers(pos), pinnedPieces(pos));
+    }
+
+    /** Like legalMoves(pos), but uses check and pin information already computed for pos. */
+    public final MoveList legalMoves(Position pos, AttackInfo ai) {
+        return legalMoves(pos, ai.checkers, ai.pinned);
+    }
+
+    private MoveList legalMoves(Position pos, final long checkers, final long pinned) {
+        MoveList moveList = getMoveListObj();
+        final boolean wtm = pos.whiteMove;
+        final long us = wtm ? pos.whiteBB : pos.blackBB;
+        final long them = wtm ? pos.blackBB : pos.whiteBB;
+        final long occupied = us | them;
+        final int kSq = pos.getKingSq(wtm);
+
+        // King moves, always generated
+        {
+            final long occNoKing = occupied & ~(1L << kSq);
+            long m = BitBoard.kingAttacks[kSq] & ~us;
+            while (m != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(m);
+                if (!sqAttackedBy(pos, sq, occNoKing, !wtm))
+                    setMove(moveList, kSq, sq, Piece.EMPTY);
+                m &= m-1;
+            }
+        }
+
+        if ((checkers & (checkers-1)) != 0)
+            return moveList; // Double check, only king moves possible
+
+        long validTargets = ~us;
+        if (checkers != 0) {
+            int threatSq = BitBoard.numberOfTrailingZeros(checkers);
+            validTargets = checkers | BitBoard.squaresBetween[kSq][threatSq];
+        } else {
+            // Castling. canCastle() checks the king start and pass-through squares.
+            final int k0 = wtm ? 4 : 60;
+            if (kSq == k0) {
+                if (canCastle(pos, wtm, true) && !sqAttacked(pos, k0 + 2))
+                    setMove(moveList, k0, k0 + 2, Piece.EMPTY);
+                if (canCastle(pos, wtm, false) && !sqAttacked(pos, k0 - 2))
+                    setMove(moveList, k0, k0 - 2, Piece.EMPTY);
+            }
+        }
+
+        // Queen, rook, bishop and knight moves
+        final int pOffs = wtm ? 0 : Piece.BKING - Piece.WKING;
+        long squares = pos.pieceTypeBB[Piece.WQUEEN + pOffs] | pos.pieceTypeBB[Piece.WROOK + pOffs];
+        while (squares != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(squares);
+            long m = BitBoard.rookAttacks(sq, occupied) & validTargets;
+            if ((pinned & (1L << sq)) != 0)
+                m &= BitBoard.squaresOnLine[kSq][sq];
+            addMovesByMask(moveList, pos, sq, m);
+            squares &= squares-1;
+        }
+        squares = pos.pieceTypeBB[Piece.WQUEEN + pOffs] | pos.pieceTypeBB[Piece.WBISHOP + pOffs];
+        while (squares != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(squares);
+            long m = BitBoard.bishopAttacks(sq, occupied) & validTargets;
+            if ((pinned & (1L << sq)) != 0)
+                m &= BitBoard.squaresOnLine[kSq][sq];
+            addMovesByMask(moveList, pos, sq, m);
+            squares &= squares-1;
+        }
+        long knights = pos.pieceTypeBB[Piece.WKNIGHT + pOffs] & ~pinned; // Pinned knights can not move
+        while (knights != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(knights);
+            long m = BitBoard.knightAttacks[sq] & validTargets;
+            addMovesByMask(moveList, pos, sq, m);
+            knights &= knights-1;
+        }
+
+        // Pawn moves. Unpinned pawns are handled in bulk, pinned pawns one at a time.
+        final long pawns = pos.pieceTypeBB[Piece.WPAWN + pOffs];
+        long freePawns = pawns & ~pinned;
+        if (wtm) {
+            long m = (freePawns << 8) & ~occupied;
+            addPawnMovesByMask(moveList, pos, m & validTargets, -8, true);
+            m = ((m & BitBoard.maskRow3) << 8) & ~occupied;
+            addPawnDoubleMovesByMask(moveList, pos, m & validTargets, -16);
+            m = (freePawns << 7) & BitBoard.maskAToGFiles & them & validTargets;
+            addPawnMovesByMask(moveList, pos, m, -7, true);
+            m = (freePawns << 9) & BitBoard.maskBToHFiles & them & validTargets;
+            addPawnMovesByMask(moveList, pos, m, -9, true);
+        } else {
+            long m = (freePawns >>> 8) & ~occupied;
+            addPawnMovesByMask(moveList, pos, m & validTargets, 8, true);
+            m = ((m & BitBoard.maskRow6) >>> 8) & ~occupied;
+            addPawnDoubleMovesByMask(moveList, pos, m & validTargets, 16);
+            m = (freePawns >>> 9) & BitBoard.maskAToGFiles & them & validTargets;
+            addPawnMovesByMask(moveList, pos, m, 9, true);
+            m = (freePawns >>> 7) & BitBoard.maskBToHFiles & them & validTargets;
+            addPawnMovesByMask(moveList, pos, m, 7, true);
+        }
+        long pinnedPawns = pawns & pinned;
+        while (pinnedPawns != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(pinnedPawns);
+            long sqMask = 1L << sq;
+            long m = (wtm ? sqMask << 8 : sqMask >>> 8) & ~occupied;
+            if ((m & (wtm ? BitBoard.maskRow3 : BitBoard.maskRow6)) != 0)
+                m |= (wtm ? m << 8 : m >>> 8) & ~occupied;
+            m |= (wtm ? BitBoard.wPawnAttacks[sq] : BitBoard.bPawnAttacks[sq]) & them;
+            m &= validTargets & BitBoard.squaresOnLine[kSq][sq];
+            addPawnMovesFromSquare(moveList, sq, m, wtm);
+            pinnedPawns &= pinnedPawns-1;
+        }
+
+        // En passant. The captured pawn and the capturing pawn both leave the rank of
+        // the king, so test the resulting position directly instead of using pin info.
+        final int epSquare = pos.getEpSquare();
+        if (epSquare >= 0) {
+            final int capSq = epSquare + (wtm ? -8 : 8);
+            final long capMask = 1L << capSq;
+            if (((checkers & ~capMask) == 0) || ((validTargets & (1L << epSquare)) != 0)) {
+                long m = pawns & (wtm ? BitBoard.bPawnAttacks[epSquare] : BitBoard.wPawnAttacks[epSquare]);
+                while (m != 0) {
+                    int sq = BitBoard.numberOfTrailingZeros(m);
+                    long occ = (occupied & ~(1L << sq) & ~capMask) | (1L << epSquare);
+                    long rookPieces = pos.pieceTypeBB[Piece.BQUEEN - pOffs] | pos.pieceTypeBB[Piece.BROOK - pOffs];
+                    long bishPieces = pos.pieceTypeBB[Piece.BQUEEN - pOffs] | pos.pieceTypeBB[Piece.BBISHOP - pOffs];
+                    if (((BitBoard.rookAttacks(kSq, occ) & rookPieces) == 0) &&
+                        ((BitBoard.bishopAttacks(kSq, occ) & bishPieces) == 0))
+                        setMove(moveList, sq, epSquare, Piece.EMPTY);
+                    m &= m-1;
+                }
+            }
+        }
+        return moveList;
+    }
+
+    /** Return a bitboard of the opponent pieces that give check to the side to move. */
+    public static long checkers(Position pos) {
+        final boolean wtm = pos.whiteMove;
+        final int kSq = pos.getKingSq(wtm);
+        final long occupied = pos.whiteBB | pos.blackBB;
+        if (wtm) {
+            long bbQueen = pos.pieceTypeBB[Piece.BQUEEN];
+            return (BitBoard.knightAttacks[kSq] & pos.pieceTypeBB[Piece.BKNIGHT]) |
+                   (BitBoard.wPawnAttacks[kSq] & pos.pieceTypeBB[Piece.BPAWN]) |
+                   (BitBoard.rookAttacks(kSq, occupied) & (pos.pieceTypeBB[Piece.BROOK] | bbQueen)) |
+                   (BitBoard.bishopAttacks(kSq, occupied) & (pos.pieceTypeBB[Piece.BBISHOP] | bbQueen));
+        } else {
+            long bbQueen = pos.pieceTypeBB[Piece.WQUEEN];
+            return (BitBoard.knightAttacks[kSq] & pos.pieceTypeBB[Piece.WKNIGHT]) |
+                   (BitBoard.bPawnAttacks[kSq] & pos.pieceTypeBB[Piece.WPAWN]) |
+                   (BitBoard.rookAttacks(kSq, occupied) & (pos.pieceTypeBB[Piece.WROOK] | bbQueen)) |
+                   (BitBoard.bishopAttacks(kSq, occupied) & (pos.pieceTypeBB[Piece.WBISHOP] | bbQueen));
+        }
+    }
+
+    /**
+     * Return a bitboard of the pieces of the side to move that are pinned to their own king,
+     * ie the pieces that are the only piece between the king and an opponent slider.
+     */
+    public static long pinnedPieces(Position pos) {
+        final boolean wtm = pos.whiteMove;
+        final int kSq = pos.getKingSq(wtm);
+        final long us = wtm ? pos.whiteBB : pos.blackBB;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final long bbQueen = pos.pieceTypeBB[wtm ? Piece.BQUEEN : Piece.WQUEEN];
+        long snipers = (BitBoard.rookAttacks(kSq, 0) & (pos.pieceTypeBB[wtm ? Piece.BROOK : Piece.WROOK] | bbQueen)) |
+                       (BitBoard.bishopAttacks(kSq, 0) & (pos.pieceTypeBB[wtm ? Piece.BBISHOP : Piece.WBISHOP] | bbQueen));
+        long pinned = 0;
+        while (snipers != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(snipers);
+            long between = BitBoard.squaresBetween[kSq][sq] & occupied;
+            if ((between != 0) && ((between & (between-1)) == 0))
+                pinned |= between & us;
+            snipers &= snipers-1;
+        }
+        return pinned;
+    }
+
+    /**
+     * Return true if a square is attacked by pieces of a given color, assuming the
+     * squares in "occupied" are the occupied squares.
+     */
+    private static boolean sqAttackedBy(Position pos, int sq, long occupied, boolean white) {
+        final int pOffs = white ? 0 : Piece.BKING - Piece.WKING;
+        if ((BitBoard.knightAttacks[sq] & pos.pieceTypeBB[Piece.WKNIGHT + pOffs]) != 0)
+            return true;
+        if ((BitBoard.kingAttacks[sq] & pos.pieceTypeBB[Piece.WKING + pOffs]) != 0)
+            return true;
+        long pawnAtks = white ? BitBoard.bPawnAttacks[sq] : BitBoard.wPawnAttacks[sq];
+        if ((pawnAtks & pos.pieceTypeBB[Piece.WPAWN + pOffs]) != 0)
+            return true;
+        long bbQueen = pos.pieceTypeBB[Piece.WQUEEN + pOffs];
+        if ((BitBoard.bishopAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WBISHOP + pOffs] | bbQueen)) != 0)
+            return true;
+        if ((BitBoard.rookAttacks(sq, occupied) & (pos.pieceTypeBB[Piece.WROOK + pOffs] | bbQueen)) != 0)
+            return true;
+        return false;
+    }
+
     /** Generate captures, checks, and possibly some other moves that are too hard to filter out. */
     public final MoveList pseudoLegalCapturesAndChecks(Position pos) {
         MoveList moveList = getMoveListObj();
@@ -714,6 +944,230 @@ public final class MoveGen {
         return moveList;
     }
 
+    /**
+     * Append all pseudo-legal moves that are not generated by pseudoLegalCaptures() to moveList.
+     * These are the non-capture non-promotion moves and the rook and bishop under-promotions.
+     * Together with pseudoLegalCaptures() this gives the same moves as pseudoLegalMoves().
+     * Must not be called if the side to move can take the opponent king.
+     */
+    public final void pseudoLegalQuiets(Position pos, MoveList moveList) {
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final long empty = ~occupied;
+        if (pos.whiteMove) {
+            // Queen moves
+            long squares = pos.pieceTypeBB[Piece.WQUEEN];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = (BitBoard.rookAttacks(sq, occupied) | BitBoard.bishopAttacks(sq, occupied)) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Rook moves
+            squares = pos.pieceTypeBB[Piece.WROOK];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.rookAttacks(sq, occupied) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Bishop moves
+            squares = pos.pieceTypeBB[Piece.WBISHOP];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.bishopAttacks(sq, occupied) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // King moves
+            {
+                int sq = pos.getKingSq(true);
+                long m = BitBoard.kingAttacks[sq] & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                if (sq == 4) {
+                    if (canCastle(pos, true, true))
+                        setMove(moveList, 4, 6, Piece.EMPTY);
+                    if (canCastle(pos, true, false))
+                        setMove(moveList, 4, 2, Piece.EMPTY);
+                }
+            }
+
+            // Knight moves
+            long knights = pos.pieceTypeBB[Piece.WKNIGHT];
+            while (knights != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(knights);
+                long m = BitBoard.knightAttacks[sq] & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                knights &= knights-1;
+            }
+
+            // Pawn moves
+            long pawns = pos.pieceTypeBB[Piece.WPAWN];
+            long m = (pawns << 8) & empty;
+            addPawnUnderPromotionsByMask(moveList, m & BitBoard.maskRow8, -8, true);
+            addPawnDoubleMovesByMask(moveList, pos, m & ~BitBoard.maskRow8, -8);
+            m = ((m & BitBoard.maskRow3) << 8) & empty;
+            addPawnDoubleMovesByMask(moveList, pos, m, -16);
+
+            m = (pawns << 7) & BitBoard.maskAToGFiles & pos.blackBB & BitBoard.maskRow8;
+            addPawnUnderPromotionsByMask(moveList, m, -7, true);
+            m = (pawns << 9) & BitBoard.maskBToHFiles & pos.blackBB & BitBoard.maskRow8;
+            addPawnUnderPromotionsByMask(moveList, m, -9, true);
+        } else {
+            // Queen moves
+            long squares = pos.pieceTypeBB[Piece.BQUEEN];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = (BitBoard.rookAttacks(sq, occupied) | BitBoard.bishopAttacks(sq, occupied)) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Rook moves
+            squares = pos.pieceTypeBB[Piece.BROOK];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.rookAttacks(sq, occupied) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // Bishop moves
+            squares = pos.pieceTypeBB[Piece.BBISHOP];
+            while (squares != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(squares);
+                long m = BitBoard.bishopAttacks(sq, occupied) & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                squares &= squares-1;
+            }
+
+            // King moves
+            {
+                int sq = pos.getKingSq(false);
+                long m = BitBoard.kingAttacks[sq] & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                if (sq == 60) {
+                    if (canCastle(pos, false, true))
+                        setMove(moveList, 60, 62, Piece.EMPTY);
+                    if (canCastle(pos, false, false))
+                        setMove(moveList, 60, 58, Piece.EMPTY);
+                }
+            }
+
+            // Knight moves
+            long knights = pos.pieceTypeBB[Piece.BKNIGHT];
+            while (knights != 0) {
+                int sq = BitBoard.numberOfTrailingZeros(knights);
+                long m = BitBoard.knightAttacks[sq] & empty;
+                addMovesByMask(moveList, pos, sq, m);
+                knights &= knights-1;
+            }
+
+            // Pawn moves
+            long pawns = pos.pieceTypeBB[Piece.BPAWN];
+            long m = (pawns >>> 8) & empty;
+            addPawnUnderPromotionsByMask(moveList, m & BitBoard.maskRow1, 8, false);
+            addPawnDoubleMovesByMask(moveList, pos, m & ~BitBoard.maskRow1, 8);
+            m = ((m & BitBoard.maskRow6) >>> 8) & empty;
+            addPawnDoubleMovesByMask(moveList, pos, m, 16);
+
+            m = (pawns >>> 9) & BitBoard.maskAToGFiles & pos.whiteBB & BitBoard.maskRow1;
+            addPawnUnderPromotionsByMask(moveList, m, 9, false);
+            m = (pawns >>> 7) & BitBoard.maskBToHFiles & pos.whiteBB & BitBoard.maskRow1;
+            addPawnUnderPromotionsByMask(moveList, m, 7, false);
+        }
+    }
+
+    /**
+     * Return true if castling is possible. Checks castling rights, empty squares between
+     * king and rook, and that the king does not start in or pass through check.
+     */
+    private static boolean canCastle(Position pos, boolean white, boolean kingSide) {
+        final int k0 = white ? 4 : 60;
+        final int castle = white ? (kingSide ? Position.H1_CASTLE : Position.A1_CASTLE)
+                                 : (kingSide ? Position.H8_CASTLE : Position.A8_CASTLE);
+        final long between = (kingSide ? 0x60L : 0xEL) << (white ? 0 : 56);
+        final int rookSq = kingSide ? k0 + 3 : k0 - 4;
+        final int d = kingSide ? 1 : -1;
+        return ((pos.getCastleMask() & (1 << castle)) != 0) &&
+               ((between & (pos.whiteBB | pos.blackBB)) == 0) &&
+               (pos.getPiece(rookSq) == (white ? Piece.WROOK : Piece.BROOK)) &&
+               !sqAttacked(pos, k0) &&
+               !sqAttacked(pos, k0 + d);
+    }
+
+    /**
+     * Return true if a move is pseudo-legal in position pos, ie if it would be generated by
+     * pseudoLegalMoves(). Used to validate hash and killer moves without generating moves.
+     * @param move  The move in int encoded form, see Move.encode().
+     */
+    public static boolean isPseudoLegal(Position pos, int move) {
+        final int from = Move.getFrom(move);
+        final int to = Move.getTo(move);
+        final int promoteTo = Move.getPromoteTo(move);
+        if (from == to)
+            return false;
+        final boolean wtm = pos.whiteMove;
+        final int p = pos.getPiece(from);
+        if ((p == Piece.EMPTY) || (Piece.isWhite(p) != wtm))
+            return false;
+        final long toMask = 1L << to;
+        if (((wtm ? pos.whiteBB : pos.blackBB) & toMask) != 0)
+            return false;
+        final long occupied = pos.whiteBB | pos.blackBB;
+        final int pType = Piece.makeWhite(p);
+        if (pType != Piece.WPAWN) {
+            if (promoteTo != Piece.EMPTY)
+                return false;
+            switch (pType) {
+            case Piece.WKING:
+                if ((BitBoard.kingAttacks[from] & toMask) != 0)
+                    return true;
+                if ((from == (wtm ? 4 : 60)) && (Math.abs(to - from) == 2))
+                    return canCastle(pos, wtm, to > from);
+                return false;
+            case Piece.WQUEEN:
+                return ((BitBoard.rookAttacks(from, occupied) |
+                         BitBoard.bishopAttacks(from, occupied)) & toMask) != 0;
+            case Piece.WROOK:
+                return (BitBoard.rookAttacks(from, occupied) & toMask) != 0;
+            case Piece.WBISHOP:
+                return (BitBoard.bishopAttacks(from, occupied) & toMask) != 0;
+            case Piece.WKNIGHT:
+                return (BitBoard.knightAttacks[from] & toMask) != 0;
+            default:
+                return false;
+            }
+        }
+
+        // Pawn moves
+        boolean lastRank = (toMask & (wtm ? BitBoard.maskRow8 : BitBoard.maskRow1)) != 0;
+        if (lastRank) {
+            if ((promoteTo == Piece.EMPTY) || (Piece.isWhite(promoteTo) != wtm))
+                return false;
+            int promType = Piece.makeWhite(promoteTo);
+            if ((promType == Piece.WKING) || (promType == Piece.WPAWN))
+                return false;
+        } else if (promoteTo != Piece.EMPTY) {
+            return false;
+        }
+        final int fwd = wtm ? 8 : -8;
+        if (to == from + fwd)
+            return (occupied & toMask) == 0;
+        if (to == from + 2 * fwd) {
+            long rowMask = wtm ? BitBoard.maskRow2 : BitBoard.maskRow7;
+            return ((rowMask & (1L << from)) != 0) &&
+                   (pos.getPiece(from + fwd) == Piece.EMPTY) &&
+                   ((occupied & toMask) == 0);
+        }
+        long atk = wtm ? BitBoard.wPawnAttacks[from] : BitBoard.bPawnAttacks[from];
+        if ((atk & toMask) == 0)
+            return false;
+        return ((occupied & toMask) != 0) || (to == pos.getEpSquare());
+    }
+
     /**
      * Return true if the side to move is in check.
      */
@@ -762,7 +1216,61 @@ public final class MoveGen {
     }
     
     /**
-     * Return true if making a move delivers check to the opponent
+     * Return true if making a move delivers check to the opponent.
+     * Uses check information computed by ai.compute(pos).
+     */
+    public static boolean givesCheck(Position pos, Move m, AttackInfo ai) {
+        final long fromMask = 1L << m.from;
+        final long toMask = 1L << m.to;
+        final int p = Piece.makeWhite(pos.getPiece(m.from));
+
+        // Direct check
+        if (m.promoteTo == Piece.EMPTY) {
+            if ((p != Piece.WKING) && ((ai.checkSquares[p] & toMask) != 0))
+                return true;
+        } else {
+            // The pawn leaving its square can open a line from the promotion square
+            final long occ = ai.occupied & ~fromMask;
+            final int prom = Piece.makeWhite(m.promoteTo);
+            long atk;
+            switch (prom) {
+            case Piece.WQUEEN:  atk = BitBoard.rookAttacks(m.to, occ) | BitBoard.bishopAttacks(m.to, occ); break;
+            case Piece.WROOK:   atk = BitBoard.rookAttacks(m.to, occ); break;
+            case Piece.WBISHOP: atk = BitBoard.bishopAttacks(m.to, occ); break;
+            default:            atk = BitBoard.knightAttacks[m.to]; break;
+            }
+            if ((atk & (1L << ai.oKingSq)) != 0)
+                return true;
+        }
+
+        // Discovered check
+        if (((ai.discoverers & fromMask) != 0) &&
+            ((BitBoard.squaresOnLine[m.from][ai.oKingSq] & toMask) == 0))
+            return true;
+
+        if (p == Piece.WKING) {
+            if (m.to - m.from == 2) { // O-O
+                final long occ = ai.occupied ^ fromMask ^ toMask ^ (1L << (m.from + 3)) ^ (1L << (m.from + 1));
+                return (BitBoard.rookAttacks(m.from + 1, occ) & (1L << ai.oKingSq)) != 0;
+            } else if (m.to - m.from == -2) { // O-O-O
+                final long occ = ai.occupied ^ fromMask ^ toMask ^ (1L << (m.from - 4)) ^ (1L << (m.from - 1));
+                return (BitBoard.rookAttacks(m.from - 1, occ) & (1L << ai.oKingSq)) != 0;
+            }
+        } else if ((p == Piece.WPAWN) && (m.to == pos.getEpSquare())) {
+            // En passant removes two pieces from the lines through the opponent king
+            final boolean wtm = pos.whiteMove;
+            final int capSq = m.to + (wtm ? -8 : 8);
+            final long occ = ai.occupied ^ fromMask ^ toMask ^ (1L << capSq);
+            final long bbQueen = pos.pieceTypeBB[wtm ? Piece.WQUEEN : Piece.BQUEEN];
+            return ((BitBoard.bishopAttacks(ai.oKingSq, occ) & (pos.pieceTypeBB[wtm ? Piece.WBISHOP : Piece.BBISHOP] | bbQueen)) != 0) ||
+                   ((BitBoard.rookAttacks(ai.oKingSq, occ) & (pos.pieceTypeBB[wtm ? Piece.WROOK : Piece.BROOK] | bbQueen)) != 0);
+        }
+        return false;
+    }
+
+    /**
+     * Return true if making a move delivers check to the opponent.
+     * Walks the lines to the opponent king, so does not need an AttackInfo.
      */
     public static boolean givesCheck(Position pos, Move m) {
         boolean wtm = pos.whiteMove;
@@ -924,6 +1432,7 @@ public final class MoveGen {
     public static void removeIllegal(Position pos, MoveList moveList) {
         int length = 0;
         UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
 
         boolean isInCheck = inCheck(pos);
         final long occupied = pos.whiteBB | pos.blackBB;
@@ -933,7 +1442,7 @@ public final class MoveGen {
         if (isInCheck) {
             kingAtks |= pos.pieceTypeBB[pos.whiteMove ? Piece.BKNIGHT : Piece.WKNIGHT];
             for (int mi = 0; mi < moveList.size; mi++) {
-                Move m = moveList.m[mi];
+                m.decode(moveList.m[mi]);
                 boolean legal;
                 if ((m.from != kSq) && ((kingAtks & (1L<<m.to)) == 0) && (m.to != epSquare)) {
                     legal = false;
@@ -944,12 +1453,15 @@ public final class MoveGen {
                     pos.setWhiteMove(!pos.whiteMove);
                     pos.unMakeMove(m, ui);
                 }
-                if (legal)
-                    moveList.m[length++].copyFrom(m);
+                if (legal) {
+                    moveList.m[length] = moveList.m[mi];
+                    moveList.score[length] = moveList.score[mi];
+                    length++;
+                }
             }
         } else {
             for (int mi = 0; mi < moveList.size; mi++) {
-                Move m = moveList.m[mi];
+                m.decode(moveList.m[mi]);
                 boolean legal;
                 if ((m.from != kSq) && ((kingAtks & (1L<<m.from)) == 0) && (m.to != epSquare)) {
                     legal = true;
@@ -960,8 +1472,11 @@ public final class MoveGen {
                     pos.setWhiteMove(!pos.whiteMove);
                     pos.unMakeMove(m, ui);
                 }
-                if (legal)
-                    moveList.m[length++].copyFrom(m);
+                if (legal) {
+                    moveList.m[length] = moveList.m[mi];
+                    moveList.score[length] = moveList.score[mi];
+                    length++;
+                }
             }
         }
         moveList.size = length;
@@ -1008,6 +1523,32 @@ public final class MoveGen {
         return false;
     }
 
+    private static void addPawnUnderPromotionsByMask(MoveList moveList, long mask,
+                                                     int delta, boolean white) {
+        while (mask != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(mask);
+            setMove(moveList, sq + delta, sq, white ? Piece.WROOK : Piece.BROOK);
+            setMove(moveList, sq + delta, sq, white ? Piece.WBISHOP : Piece.BBISHOP);
+            mask &= (mask - 1);
+        }
+    }
+
+    /** Add pawn moves from one square, including all promotions. */
+    private static void addPawnMovesFromSquare(MoveList moveList, int sq0, long mask, boolean white) {
+        while (mask != 0) {
+            int sq = BitBoard.numberOfTrailingZeros(mask);
+            if ((sq >= 56) || (sq < 8)) {
+                setMove(moveList, sq0, sq, white ? Piece.WQUEEN : Piece.BQUEEN);
+                setMove(moveList, sq0, sq, white ? Piece.WKNIGHT : Piece.BKNIGHT);
+                setMove(moveList, sq0, sq, white ? Piece.WROOK : Piece.BROOK);
+                setMove(moveList, sq0, sq, white ? Piece.WBISHOP : Piece.BBISHOP);
+            } else {
+                setMove(moveList, sq0, sq, Piece.EMPTY);
+            }
+            mask &= (mask - 1);
+        }
+    }
+
     private static void addPawnDoubleMovesByMask(MoveList moveList, Position pos,
                                                  long mask, int delta) {
         while (mask != 0) {
@@ -1034,11 +1575,9 @@ public final class MoveGen {
     }
 
     private static void setMove(MoveList moveList, int from, int to, int promoteTo) {
-        Move m = moveList.m[moveList.size++];
-        m.from = from;
-        m.to = to;
-        m.promoteTo = promoteTo;
-        m.score = 0;
+        int idx = moveList.size++;
+        moveList.m[idx] = from + (to << 6) + (promoteTo << 12);
+        moveList.score[idx] = 0;
     }
 
     // Code to handle the Move cache.
@@ -1047,20 +1586,18 @@ public final class MoveGen {
     
     private static final int MAX_MOVES = 256;
 
-    private MoveList getMoveListObj() {
+    final MoveList getMoveListObj() {
         MoveList ml;
         if (moveListsInCache > 0) {
             ml = (MoveList)moveListCache[--moveListsInCache];
             ml.size = 0;
         } else {
             ml = new MoveList();
-            for (int i = 0; i < MAX_MOVES; i++)
-                ml.m[i] = new Move(0, 0, Piece.EMPTY);
         }
         return ml;
     }
 
-    /** Return all move objects in moveList to the move cache. */
+    /** Return moveList to the move list cache. */
     public final void returnMoveList(MoveList moveList) {
         if (moveListsInCache < moveListCache.length) {
             moveListCache[moveListsInCache++] = moveList;
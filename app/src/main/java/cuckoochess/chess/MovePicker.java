@@ -0,0 +1,204 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package cuckoochess.chess;
+
+/**
+ * Staged move generation for the main search. Moves are produced in the order
+ * hash move, good captures, killer moves, quiet moves and bad captures. Each
+ * stage is only generated when the previous stages did not produce a cutoff,
+ * so most cut nodes never generate quiet moves.
+ *
+ * All moves end up in one move list, so the search can refer to already
+ * searched moves by index.
+ */
+final class MovePicker {
+    private static final int HASH          = 0;
+    private static final int CAPTURES_INIT = 1;
+    private static final int GOOD_CAPTURES = 2;
+    private static final int KILLERS_INIT  = 3;
+    private static final int KILLERS       = 4;
+    private static final int QUIETS_INIT   = 5;
+    private static final int REMAINING     = 6;
+    private static final int EVASIONS      = 7;
+
+    private final Search sc;
+    private final MoveGen moveGen;
+    private final KillerTable kt;
+
+    /** Moves generated so far. Only valid between init() and the next init() call. */
+    MoveGen.MoveList moves;
+
+    private Position pos;
+    private int ply;
+    private int stage;
+    private boolean haveHashMove;  // True if moves.m[0] is the hash move
+    private boolean scored;        // For check evasions, true if all moves have been scored
+    private final int[] skipMoves = new int[5]; // Hash and killer moves already added
+    private int nSkipMoves;
+
+    MovePicker(Search sc, MoveGen moveGen, KillerTable kt) {
+        this.sc = sc;
+        this.moveGen = moveGen;
+        this.kt = kt;
+    }
+
+    /**
+     * Start generating moves for a position.
+     * The move list must be returned to moveGen when the caller is done with it.
+     * @param hashMove  Move from the transposition table in int encoded form, or 0.
+     * @param inCheck   True if the side to move is in check. In that case all check
+     *                  evasions are generated at once.
+     */
+    final void init(Position pos, int ply, int hashMove, boolean inCheck) {
+        this.pos = pos;
+        this.ply = ply;
+        if (inCheck) {
+            moves = moveGen.checkEvasions(pos);
+            haveHashMove = Search.selectHashMove(moves, hashMove);
+            scored = false;
+            if (!haveHashMove) {
+                sc.scoreMoveList(moves, ply);
+                scored = true;
+            }
+            stage = EVASIONS;
+        } else {
+            moves = moveGen.getMoveListObj();
+            haveHashMove = false;
+            nSkipMoves = 0;
+            if ((hashMove != 0) && MoveGen.isPseudoLegal(pos, hashMove)) {
+                moves.m[0] = hashMove;
+                moves.score[0] = 10000;
+                moves.size = 1;
+                haveHashMove = true;
+                skipMoves[nSkipMoves++] = hashMove;
+            }
+            stage = haveHashMove ? HASH : CAPTURES_INIT;
+        }
+    }
+
+    /**
+     * Make moves.m[mi] the next move to search. Must be called with mi = 0, 1, 2, ...
+     * @return False if there are no more moves.
+     */
+    final boolean next(int mi) {
+        while (true) {
+            switch (stage) {
+            case HASH:
+                stage = CAPTURES_INIT;
+                return true;
+            case CAPTURES_INIT: {
+                int start = moves.size;
+                MoveGen.MoveList caps = moveGen.pseudoLegalCaptures(pos);
+                for (int i = 0; i < caps.size; i++) {
+                    int m = caps.m[i];
+                    if (!isDuplicate(m))
+                        moves.m[moves.size++] = m;
+                }
+                moveGen.returnMoveList(caps);
+                sc.scoreMoveList(moves, ply, start);
+                stage = GOOD_CAPTURES;
+                break;
+            }
+            case GOOD_CAPTURES:
+                if (mi < moves.size) {
+                    Search.selectBest(moves, mi);
+                    if (moves.score[mi] >= 0)
+                        return true;
+                }
+                stage = KILLERS_INIT;
+                break;
+            case KILLERS_INIT:
+                addKillers();
+                stage = KILLERS;
+                break;
+            case KILLERS:
+                if (mi < moves.size) {
+                    Search.selectBest(moves, mi);
+                    if (moves.score[mi] >= 0)
+                        return true;
+                }
+                stage = QUIETS_INIT;
+                break;
+            case QUIETS_INIT:
+                addQuiets();
+                stage = REMAINING;
+                break;
+            case REMAINING:
+                if (mi >= moves.size)
+                    return false;
+                Search.selectBest(moves, mi);
+                return true;
+            case EVASIONS:
+                if (mi >= moves.size)
+                    return false;
+                if ((mi == 1) && !scored) {
+                    sc.scoreMoveList(moves, ply, 1);
+                    scored = true;
+                }
+                if ((mi > 0) || !haveHashMove)
+                    Search.selectBest(moves, mi);
+                return true;
+            default:
+                throw new RuntimeException();
+            }
+        }
+    }
+
+    /** Append killer moves that are pseudo-legal quiet moves in the current position. */
+    private void addKillers() {
+        for (int i = 0; i < 4; i++) {
+            int km = kt.getKiller(ply, i);
+            if (km == 0)
+                continue;
+            if ((Move.getPromoteTo(km) != Piece.EMPTY) || (pos.getPiece(Move.getTo(km)) != Piece.EMPTY))
+                continue; // Generated in the capture stage
+            if (isDuplicate(km))
+                continue;
+            if (!MoveGen.isPseudoLegal(pos, km))
+                continue;
+            moves.m[moves.size] = km;
+            moves.score[moves.size] = kt.getKillerScore(ply, km) + 50;
+            moves.size++;
+            skipMoves[nSkipMoves++] = km;
+        }
+    }
+
+    /** Append quiet moves, except the hash move and killer moves that have already been added. */
+    private void addQuiets() {
+        int start = moves.size;
+        moveGen.pseudoLegalQuiets(pos, moves);
+        if (nSkipMoves > 0) {
+            int len = start;
+            for (int i = start; i < moves.size; i++) {
+                int m = moves.m[i];
+                if (!isDuplicate(m))
+                    moves.m[len++] = m;
+            }
+            moves.size = len;
+        }
+        sc.scoreMoveList(moves, ply, start);
+    }
+
+    /** Return true if m is the hash move or one of the killer moves already added. */
+    private boolean isDuplicate(int m) {
+        for (int i = 0; i < nSkipMoves; i++)
+            if (skipMoves[i] == m)
+                return true;
+        return false;
+    }
+}
@@ -105,6 +105,21 @@ public class Parameters {
         addPar(new SpinParam("bV", false, -200, 200, 0));
         addPar(new SpinParam("nV", false, -200, 200, 0));
         addPar(new SpinParam("pV", false, -200, 200, 0));
+
+        // Search pruning
+        addPar(new CheckParam("lmp", false, true));
+        addPar(new SpinParam("lmpCount1", false, 1, 256, 3));
+        addPar(new SpinParam("lmpCount2", false, 1, 256, 6));
+        addPar(new SpinParam("lmpCount3", false, 1, 256, 12));
+        addPar(new SpinParam("lmpCount4", false, 1, 256, 24));
+        addPar(new CheckParam("seePruneQuiets", false, true));
+        addPar(new CheckParam("seePruneCaptures", false, true));
+        addPar(new SpinParam("seePruneDepth", false, 0, 8, 3));
+        addPar(new SpinParam("seeQuietMargin", false, 0, 1000, 60));
+        addPar(new SpinParam("seeCaptureMargin", false, 0, 1000, 100));
+
+        // Quiescence search
+        addPar(new CheckParam("quiesceHash", false, true));
     }
 
     private void addPar(ParamBase p) {
@@ -0,0 +1,224 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package cuckoochess.chess;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Move generator verification and benchmark. Counts the number of leaf nodes
+ * in the legal move tree of a given depth.
+ *
+ * The root moves are split between a number of threads. Subtree counts are
+ * stored in a hash table shared by all threads, so transpositions are only
+ * counted once, and the last ply is counted by generating the legal moves
+ * without making them.
+ */
+public final class Perft {
+    /** Test positions with known node counts, as "FEN;depth;nodes". */
+    public static final String[] testSuite = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1;6;119060324",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1;5;193690690",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1;6;11030083",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1;5;15833292",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8;5;89941194",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10;5;164075551",
+        // En passant, castling and promotion special cases
+        "8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1;6;1440467",
+        "8/5bk1/8/2Pp4/8/1K6/8/8 w - d6 0 1;6;824064",
+        "3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1;6;1134888",
+        "8/8/4k3/8/2p5/8/B2P2K1/8 w - - 0 1;6;1015133",
+        "5k2/8/8/8/8/8/8/4K2R w K - 0 1;6;661072",
+        "r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1;4;1274206",
+        "2K2r2/4P3/8/8/8/8/8/3k4 w - - 0 1;6;3821001",
+        "8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1;4;23527",
+        "K1k5/8/P7/8/8/8/8/8 w - - 0 1;6;2217",
+        "8/k1P5/8/1K6/8/8/8/8 w - - 0 1;7;567584",
+        "8/P1k5/K7/8/8/8/8/8 w - - 0 1;6;92683",
+        "4k3/1P6/8/8/8/8/K7/8 w - - 0 1;6;217342",
+    };
+
+    private final int numThreads;
+
+    // Hash table. Each entry holds "key ^ count" and "count", so an entry torn by
+    // concurrent writes from different threads is detected and ignored.
+    private final long[] hashKeys;
+    private final long[] hashCounts;
+    private final int hashMask;
+
+    /**
+     * Create a perft calculator.
+     * @param hashLogSize  Log2 of the number of hash table entries, or -1 for no hash table.
+     * @param numThreads   Number of threads used to search the root moves.
+     */
+    public Perft(int hashLogSize, int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        if (hashLogSize >= 0) {
+            hashKeys = new long[1 << hashLogSize];
+            hashCounts = new long[1 << hashLogSize];
+            hashMask = (1 << hashLogSize) - 1;
+        } else {
+            hashKeys = null;
+            hashCounts = null;
+            hashMask = 0;
+        }
+    }
+
+    /** Return the number of leaf nodes at the given depth. */
+    public final long perft(Position pos, int depth) {
+        if (depth <= 0)
+            return 1;
+        long[] counts = divide(pos, depth);
+        long nodes = 0;
+        for (long n : counts)
+            nodes += n;
+        return nodes;
+    }
+
+    /**
+     * Return the number of leaf nodes for each legal move in the position.
+     * Element i corresponds to move i in new MoveGen().legalMoves(pos).
+     * For depth 0 the result is an empty array.
+     */
+    public final long[] divide(final Position pos, final int depth) {
+        final MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        final long[] counts = new long[depth > 0 ? moves.size : 0];
+        if (counts.length == 0)
+            return counts;
+        final AtomicInteger nextMove = new AtomicInteger(0);
+        Runnable worker = new Runnable() {
+            public void run() {
+                Position p = new Position(pos);
+                MoveGen moveGen = new MoveGen();
+                UndoInfo ui = new UndoInfo();
+                Move m = new Move(0, 0, Piece.EMPTY);
+                int mi;
+                while ((mi = nextMove.getAndIncrement()) < moves.size) {
+                    m.decode(moves.m[mi]);
+                    p.makeMove(m, ui);
+                    counts[mi] = perftRec(moveGen, p, depth - 1);
+                    p.unMakeMove(m, ui);
+                }
+            }
+        };
+        int nThreads = Math.min(numThreads, moves.size);
+        Thread[] threads = new Thread[nThreads - 1];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(worker, "perft " + (i + 1));
+            threads[i].start();
+        }
+        worker.run();
+        for (Thread t : threads) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        return counts;
+    }
+
+    private long perftRec(MoveGen moveGen, Position pos, int depth) {
+        if (depth == 0)
+            return 1;
+        MoveGen.MoveList moves = moveGen.legalMoves(pos);
+        if (depth == 1) { // Bulk counting
+            int ret = moves.size;
+            moveGen.returnMoveList(moves);
+            return ret;
+        }
+        long key = 0;
+        int idx = 0;
+        if (hashKeys != null) {
+            key = pos.zobristHash() ^ (depth * 0x9E3779B97F4A7C15L);
+            idx = (int)key & hashMask;
+            long count = hashCounts[idx];
+            if ((hashKeys[idx] ^ count) == key) {
+                moveGen.returnMoveList(moves);
+                return count;
+            }
+        }
+        long nodes = 0;
+        UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
+        for (int mi = 0; mi < moves.size; mi++) {
+            m.decode(moves.m[mi]);
+            pos.makeMove(m, ui);
+            nodes += perftRec(moveGen, pos, depth - 1);
+            pos.unMakeMove(m, ui);
+        }
+        moveGen.returnMoveList(moves);
+        if (hashKeys != null) {
+            hashKeys[idx] = key ^ nodes;
+            hashCounts[idx] = nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Run perft on all positions in testSuite and print the results.
+     * @param maxDepth  Positions are searched to at most this depth. Positions where the
+     *                  listed depth is larger are skipped.
+     * @return True if all node counts were correct.
+     */
+    public final boolean runTestSuite(int maxDepth) {
+        boolean ok = true;
+        long totNodes = 0;
+        long t0 = System.currentTimeMillis();
+        for (String test : testSuite) {
+            String[] fields = test.split(";");
+            int depth = Integer.parseInt(fields[1]);
+            if (depth > maxDepth)
+                continue;
+            long expected = Long.parseLong(fields[2]);
+            Position pos;
+            try {
+                pos = TextIO.readFEN(fields[0]);
+            } catch (ChessParseError ex) {
+                throw new RuntimeException(ex);
+            }
+            clearHash();
+            long nodes = perft(pos, depth);
+            totNodes += nodes;
+            boolean correct = nodes == expected;
+            ok &= correct;
+            System.out.printf(Locale.US, "%s perft(%d) = %d%s %s%n", correct ? "OK " : "BAD",
+                              depth, nodes, correct ? "" : " (expected " + expected + ")", fields[0]);
+        }
+        long t1 = System.currentTimeMillis();
+        System.out.printf(Locale.US, "%s nodes=%d t=%.3fs%n", ok ? "All OK" : "FAILED",
+                          totNodes, (t1 - t0) * 1e-3);
+        return ok;
+    }
+
+    /** Remove all entries from the hash table. */
+    public final void clearHash() {
+        if (hashKeys != null) {
+            for (int i = 0; i < hashKeys.length; i++) {
+                hashKeys[i] = 0;
+                hashCounts[i] = 0;
+            }
+        }
+    }
+}
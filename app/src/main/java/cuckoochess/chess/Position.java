@@ -58,6 +58,7 @@ public class Position {
 
     private long hashKey;           // Cached Zobrist hash key
     private long pHashKey;
+    private long mtrlKey;           // Material signature, see materialKey()
     public int wKingSq, bKingSq;   // Cached king positions
     public int wMtrl;      // Total value of all white pieces and pawns
     public int bMtrl;      // Total value of all black pieces and pawns
@@ -110,6 +111,7 @@ public class Position {
         fullMoveCounter = other.fullMoveCounter;
         hashKey = other.hashKey;
         pHashKey = other.pHashKey;
+        mtrlKey = other.mtrlKey;
         wKingSq = other.wKingSq;
         bKingSq = other.bKingSq;
         wMtrl = other.wMtrl;
@@ -150,6 +152,14 @@ public class Position {
     public final long pawnZobristHash() {
         return pHashKey;
     }
+    /**
+     * Return the material signature. The number of pieces of each type, except kings,
+     * is stored in 4 bits at bit position 4 * pieceType, so two positions have the same
+     * signature if and only if they have the same material.
+     */
+    public final long materialKey() {
+        return mtrlKey;
+    }
     public final long kingZobristHash() {
         return psHashKeys[Piece.WKING][wKingSq] ^ 
                psHashKeys[Piece.BKING][bKingSq];
@@ -296,6 +306,8 @@ public class Position {
             }
         }
 
+        mtrlKey += mtrlKeyDelta[piece] - mtrlKeyDelta[removedPiece];
+
         // Update piece/square table scores
         psScore1[removedPiece] -= Evaluate.psTab1[removedPiece][square];
         psScore2[removedPiece] -= Evaluate.psTab2[removedPiece][square];
@@ -303,34 +315,6 @@ public class Position {
         psScore2[piece]        += Evaluate.psTab2[piece][square];
     }
 
-    /**
-     * Set a square to a piece value.
-     * Special version that only updates enough of the state for the SEE function to be happy.
-     */
-    private void setSEEPiece(int square, int piece) {
-        int removedPiece = squares[square];
-
-        // Update board
-        squares[square] = piece;
-
-        // Update bitboards
-        long sqMask = 1L << square;
-        pieceTypeBB[removedPiece] &= ~sqMask;
-        pieceTypeBB[piece] |= sqMask;
-        if (removedPiece != Piece.EMPTY) {
-            if (Piece.isWhite(removedPiece))
-                whiteBB &= ~sqMask;
-            else
-                blackBB &= ~sqMask;
-        }
-        if (piece != Piece.EMPTY) {
-            if (Piece.isWhite(piece))
-                whiteBB |= sqMask;
-            else
-                blackBB |= sqMask;
-        }
-    }
-
     /** Return true if white long castling right has not been lost. */
     public final boolean a1Castle() {
         return (castleMask & (1 << A1_CASTLE)) != 0;
@@ -522,46 +506,6 @@ public class Position {
         }
     }
 
-    /**
-     * Apply a move to the current position.
-     * Special version that only updates enough of the state for the SEE function to be happy.
-     */
-    public final void makeSEEMove(Move move, UndoInfo ui) {
-        ui.capturedPiece = squares[move.to];
-        
-        int p = squares[move.from];
-
-        // Handle en passant
-        if (move.to == epSquare) {
-            if (p == Piece.WPAWN) {
-                setSEEPiece(move.to - 8, Piece.EMPTY);
-            } else if (p == Piece.BPAWN) {
-                setSEEPiece(move.to + 8, Piece.EMPTY);
-            }
-        }
-
-        // Perform move
-        setSEEPiece(move.from, Piece.EMPTY);
-        setSEEPiece(move.to, p);
-        whiteMove = !whiteMove;
-    }
-
-    public final void unMakeSEEMove(Move move, UndoInfo ui) {
-        whiteMove = !whiteMove;
-        int p = squares[move.to];
-        setSEEPiece(move.from, p);
-        setSEEPiece(move.to, ui.capturedPiece);
-
-        // Handle en passant
-        if (move.to == epSquare) {
-            if (p == Piece.WPAWN) {
-                setSEEPiece(move.to - 8, Piece.BPAWN);
-            } else if (p == Piece.BPAWN) {
-                setSEEPiece(move.to + 8, Piece.WPAWN);
-            }
-        }
-    }
-
     private void removeCastleRights(int square) {
         if (square == Position.getSquare(0, 0)) {
             setCastleMask(castleMask & ~(1 << Position.A1_CASTLE));
@@ -577,6 +521,14 @@ public class Position {
     /* ------------- Hashing code ------------------ */
     
     static final long[][] psHashKeys;    // [piece][square]
+    private static final long[] mtrlKeyDelta;    // [pieceType]
+    static {
+        mtrlKeyDelta = new long[Piece.nPieceTypes];
+        for (int p = 0; p < Piece.nPieceTypes; p++)
+            if ((p != Piece.EMPTY) && (p != Piece.WKING) && (p != Piece.BKING))
+                mtrlKeyDelta[p] = 1L << (4 * p);
+    }
+
     private static final long whiteHashKey;
     private static final long[] castleHashKeys;  // [castleMask]
     private static final long[] epHashKeys;      // [epFile + 1] (epFile==-1 for no ep)
@@ -602,6 +554,70 @@ public class Position {
             moveCntKeys[mc] = getRandomHashVal(rndNo++);
     }
 
+    /**
+     * Cuckoo hash table containing the hash key difference for all reversible
+     * moves of non-pawn pieces on an empty board. If the hash key difference between
+     * two positions is found in the table, the positions may differ by one move.
+     * Used by the search to detect that a repetition can be reached with one move.
+     */
+    private static final int CUCKOO_SIZE = 8192;
+    private static final long[] cuckooKeys;   // [index], 0 for empty slots
+    private static final int[] cuckooMoves;   // [index], from + (to << 6) + (piece << 12)
+
+    private static int cuckooH1(long key) { return (int)key & (CUCKOO_SIZE - 1); }
+    private static int cuckooH2(long key) { return (int)(key >>> 16) & (CUCKOO_SIZE - 1); }
+
+    static {
+        cuckooKeys = new long[CUCKOO_SIZE];
+        cuckooMoves = new int[CUCKOO_SIZE];
+        for (int p = Piece.WKING; p <= Piece.BKNIGHT; p++) {
+            if (p == Piece.WPAWN)
+                continue;
+            for (int from = 0; from < 64; from++) {
+                long toMask;
+                switch (Piece.makeWhite(p)) {
+                case Piece.WKING:   toMask = BitBoard.kingAttacks[from]; break;
+                case Piece.WQUEEN:  toMask = BitBoard.rookAttacks(from, 0) | BitBoard.bishopAttacks(from, 0); break;
+                case Piece.WROOK:   toMask = BitBoard.rookAttacks(from, 0); break;
+                case Piece.WBISHOP: toMask = BitBoard.bishopAttacks(from, 0); break;
+                default:            toMask = BitBoard.knightAttacks[from]; break;
+                }
+                toMask &= -(2L << from); // Only store each square pair once
+                while (toMask != 0) {
+                    int to = BitBoard.numberOfTrailingZeros(toMask);
+                    toMask &= toMask - 1;
+                    long key = psHashKeys[p][from] ^ psHashKeys[p][to] ^
+                               psHashKeys[Piece.EMPTY][from] ^ psHashKeys[Piece.EMPTY][to] ^
+                               whiteHashKey;
+                    int move = from + (to << 6) + (p << 12);
+                    int idx = cuckooH1(key);
+                    while (true) {
+                        long tmpKey = cuckooKeys[idx]; cuckooKeys[idx] = key; key = tmpKey;
+                        int tmpMove = cuckooMoves[idx]; cuckooMoves[idx] = move; move = tmpMove;
+                        if (key == 0)
+                            break;
+                        idx = (idx == cuckooH1(key)) ? cuckooH2(key) : cuckooH1(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the reversible move that changes the hash key by keyDiff, or -1 if
+     * there is no such move. The returned value is from + (to << 6) + (piece << 12),
+     * where the piece can be on either of the two squares.
+     */
+    static int reversibleMove(long keyDiff) {
+        int idx = cuckooH1(keyDiff);
+        if (cuckooKeys[idx] != keyDiff) {
+            idx = cuckooH2(keyDiff);
+            if (cuckooKeys[idx] != keyDiff)
+                return -1;
+        }
+        return cuckooMoves[idx];
+    }
+
     /**
      * Compute the Zobrist hash value non-incrementally. Only useful for test programs.
      */
@@ -23,6 +23,8 @@ import cuckoochess.chess.TranspositionTable.TTEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Timer;
+import java.util.TimerTask;
 
 public class Search {
     final static int plyScale = 8; // Fractional ply resolution
@@ -30,39 +32,78 @@ public class Search {
     Position pos;
     private MoveGen moveGen;
     private Evaluate eval;
+    private int evalCacheLogSize = Evaluate.DEFAULT_EVAL_CACHE_LOG_SIZE;
+    private int pawnHashLogSize = Evaluate.DEFAULT_PAWN_HASH_LOG_SIZE;
+    private int kingSafetyHashLogSize = Evaluate.DEFAULT_KING_SAFETY_HASH_LOG_SIZE;
+    private int lazyEvalMargin = Evaluate.DEFAULT_LAZY_EVAL_MARGIN;
     private KillerTable kt;
     private History ht;
     private long[] posHashList;         // List of hashes for previous positions up to the last "zeroing" move.
     private int posHashListSize;        // Number of used entries in posHashList
     private int posHashFirstNew;        // First entry in posHashList that has not been played OTB.
+    private long[] gameRepKeys;         // Hash set of OTB positions that can still be repeated
+    private int[] gameRepLast;          // Last posHashList index for gameRepKeys entry, -1 for empty slots
+    private int[] gameRepPrev;          // Second to last posHashList index for gameRepKeys entry, or -1
+    private int gameRepMask;            // gameRepKeys.length - 1
+
+    // Pruning and quiescence search parameters, read from Parameters when the root position is set
+    private boolean lmpEnabled;
+    private final int[] lmpMoveCount = new int[5]; // [depth in plies], 1 <= depth <= 4
+    private boolean seePruneQuiets;
+    private boolean seePruneCaptures;
+    private int seePruneDepth;          // In plies
+    private int seeQuietMargin;         // Allowed SEE loss per ply of remaining depth
+    private int seeCaptureMargin;
+    private boolean quiesceHash;        // Use the transposition table in quiescence search
     private TranspositionTable tt;
     private TreeLogger log = null;
 
     private static final class SearchTreeInfo {
         UndoInfo undoInfo;
-        Move hashMove;         // Temporary storage for local hashMove variable
+        Move searchMove;       // Decoded form of the move being searched at this ply
         boolean allowNullMove; // Don't allow two null-moves in a row
         Move bestMove;         // Copy of the best found move at this ply
         Move currentMove;      // Move currently being searched
         int lmr;               // LMR reduction amount
         long nodeIdx;
+        TTEntry ent;           // Temporary storage for transposition table probe result
+        MovePicker movePicker; // Staged move generation for this ply
+        AttackInfo attackInfo; // Check information for the position at this ply
         SearchTreeInfo() {
             undoInfo = new UndoInfo();
-            hashMove = new Move(0, 0, 0);
+            attackInfo = new AttackInfo();
+            ent = new TTEntry();
+            searchMove = new Move(0, 0, 0);
             allowNullMove = true;
             bestMove = new Move(0, 0, 0);
         }
     }
     private SearchTreeInfo[] searchTreeInfo;
 
+    // Triangular PV table. pvTable[ply][0..pvLength[ply]) is the best line found from the
+    // node at "ply", updated when a move raises alpha. Row "ply" has room for the moves
+    // from ply to the maximum search ply.
+    private int[][] pvTable;
+    private int[] pvLength;
+    private ArrayList<Move> pvList;     // Reused PV list passed to the listener
+    private Move[] pvMoves;             // Move objects used by pvList
+
     // Time management
     private long tStart;            // Time when search started
     private long minTimeMillis;     // Minimum recommended thinking time
     long maxTimeMillis;                 // Maximum allowed thinking time
-    private boolean searchNeedMoreTime; // True if negaScout should use up to maxTimeMillis time.
+    private volatile boolean searchNeedMoreTime; // True if negaScout should use up to maxTimeMillis time.
     private long maxNodes;          // Maximum number of nodes to search (approximately)
-    private int nodesToGo;          // Number of nodes until next time check
-    public int nodesBetweenTimeCheck = 5000; // How often to check remaining time
+
+    // Time control. A timer thread sets stopRequested when the time is up, and
+    // statsRequested when it is time to report search statistics.
+    private double softTimeFactor;  // Adaptive scale factor for minTimeMillis
+    private long softTimeMillis;    // Adaptive minimum thinking time
+    private volatile boolean searching = false;
+    private volatile boolean statsRequested = false;
+    private TimerTask stopTask = null;
+    private TimerTask statsTask = null;
+    private static Timer timer = null;
 
     // Reduced strength variables
     private int strength = 1000; // Strength (0-1000)
@@ -72,11 +113,21 @@ public class Search {
     // Search statistics stuff
     private long nodes;
     private long qNodes;
+    private long totalQNodes;
     private int[] nodesPlyVec;
     private int[] nodesDepthVec;
     private long totalNodes;
-    private long tLastStats;        // Time when notifyStats was last called
     private boolean verbose;
+    private final TranspositionTable.Stats ttStats = new TranspositionTable.Stats(); // Hash table counters for this thread
+
+    // Parallel search variables
+    private int numThreads = 1;     // Number of threads used by iterativeDeepening
+    private int helperId = 0;       // 0 for the main search, > 0 for helper searches
+    private volatile boolean stopRequested = false; // Set to stop the search
+    private Search[] helpers = null;        // Helpers used by the last search, null if none
+    private Search[] helperPool = null;     // Helper searches kept between searches
+    private Thread[] helperThreads = null;
+    private static final int HELPER_STACK_SIZE = 8 * 1024 * 1024;
     
     public final static int MATE0 = 32000;
 
@@ -85,25 +136,88 @@ public class Search {
 
     public Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
                   History ht) {
-        this.pos = new Position(pos);
+        this(pos, posHashList, posHashListSize, tt, ht, new Evaluate());
+    }
+
+    /** Create a helper search that uses the same table, evaluation and parameter settings as "main". */
+    private Search(Search main, int helperId) {
+        this(main.pos, new long[main.posHashList.length], 0, main.tt, new History(),
+             new Evaluate(main.evalCacheLogSize, main.pawnHashLogSize, main.kingSafetyHashLogSize));
+        this.helperId = helperId;
+        evalCacheLogSize = main.evalCacheLogSize;
+        pawnHashLogSize = main.pawnHashLogSize;
+        kingSafetyHashLogSize = main.kingSafetyHashLogSize;
+    }
+
+    private Search(Position pos, long[] posHashList, int posHashListSize, TranspositionTable tt,
+                   History ht, Evaluate eval) {
         this.moveGen = new MoveGen();
-        this.posHashList = posHashList;
-        this.posHashListSize = posHashListSize;
         this.tt = tt;
         this.ht = ht;
-        eval = new Evaluate();
+        this.eval = eval;
         kt = new KillerTable();
+        final int vecLen = 200;
+        searchTreeInfo = new SearchTreeInfo[vecLen];
+        for (int i = 0; i < vecLen; i++) {
+            searchTreeInfo[i] = new SearchTreeInfo();
+            searchTreeInfo[i].movePicker = new MovePicker(this, moveGen, kt);
+        }
+        pvTable = new int[vecLen + 1][];
+        for (int i = 0; i <= vecLen; i++)
+            pvTable[i] = new int[vecLen - i];
+        pvLength = new int[vecLen + 1];
+        pvList = new ArrayList<>(vecLen);
+        pvMoves = new Move[vecLen];
+        for (int i = 0; i < vecLen; i++)
+            pvMoves[i] = new Move(0, 0, 0);
+        setRootPosition(pos, posHashList, posHashListSize);
+    }
+
+    /**
+     * Prepare for a search from a new root position. Killer, history and evaluation
+     * state is kept, so one Search object can be reused for all moves in a game.
+     * @param pos              The new root position.
+     * @param posHashList      Hash keys of earlier positions, used for repetition detection.
+     * @param posHashListSize  Number of used entries in posHashList.
+     */
+    public final void setRootPosition(Position pos, long[] posHashList, int posHashListSize) {
+        this.pos = new Position(pos);
+        this.posHashList = posHashList;
+        this.posHashListSize = posHashListSize;
         posHashFirstNew = posHashListSize;
+        initGameRepTable();
+        initSearchParams();
         initNodeStats();
+        tStart = System.currentTimeMillis();
         minTimeMillis = -1;
         maxTimeMillis = -1;
         searchNeedMoreTime = false;
         maxNodes = -1;
-        final int vecLen = 200;
-        searchTreeInfo = new SearchTreeInfo[vecLen];
-        for (int i = 0; i < vecLen; i++) {
-            searchTreeInfo[i] = new SearchTreeInfo();
-        }
+    }
+
+    /** Read the search parameters from Parameters. */
+    private void initSearchParams() {
+        Parameters par = Parameters.instance();
+        lmpEnabled = par.getBooleanPar("lmp");
+        for (int d = 1; d <= 4; d++)
+            lmpMoveCount[d] = par.getIntPar("lmpCount" + d);
+        seePruneQuiets = par.getBooleanPar("seePruneQuiets");
+        seePruneCaptures = par.getBooleanPar("seePruneCaptures");
+        seePruneDepth = par.getIntPar("seePruneDepth");
+        seeQuietMargin = par.getIntPar("seeQuietMargin");
+        seeCaptureMargin = par.getIntPar("seeCaptureMargin");
+        quiesceHash = par.getBooleanPar("quiesceHash");
+    }
+
+    /**
+     * Adjust killer moves after the root position has moved "plies" half-moves forward
+     * in the game. The killer table is cleared if plies is not positive.
+     */
+    public final void shiftKillers(int plies) {
+        kt.shift(plies);
+        if (helperPool != null)
+            for (Search h : helperPool)
+                h.kt.shift(plies);
     }
 
     static final class StopSearch extends Exception {
@@ -121,9 +235,11 @@ public class Search {
     public interface Listener {
         void notifyDepth(int depth);
         void notifyCurrMove(Move m, int moveNr);
+        /** Report a new PV. The pv list is reused by the search, so it is only valid during the call. */
         void notifyPV(int depth, int score, int time, long nodes, int nps,
                       boolean isMate, boolean upperBound, boolean lowerBound, ArrayList<Move> pv);
         void notifyStats(long nodes, int nps, int time);
+        void notifyTTStats(TranspositionTable.Stats stats);
     }
 
     private Listener listener;
@@ -134,7 +250,10 @@ public class Search {
     private final static class MoveInfo {
         Move move;
         long nodes;
-        MoveInfo(Move m, int n) { move = m;  nodes = n; }
+        int listIdx;    // Index in the root move list
+        int[] pv;       // Best line starting with move, from the last search of move
+        int pvLength;
+        MoveInfo(Move m, int n, int idx) { move = m;  nodes = n; listIdx = idx; }
         public static final class SortByScore implements Comparator<MoveInfo> {
             public int compare(MoveInfo mi1, MoveInfo mi2) {
                 if ((mi1 == null) && (mi2 == null))
@@ -166,8 +285,251 @@ public class Search {
     }
 
     final public void timeLimit(int minTimeLimit, int maxTimeLimit) {
-        minTimeMillis = minTimeLimit;
-        maxTimeMillis = maxTimeLimit;
+        synchronized (this) {
+            minTimeMillis = minTimeLimit;
+            maxTimeMillis = maxTimeLimit;
+        }
+        scheduleStopTask();
+    }
+
+    /**
+     * Set time limits measured from the current time instead of from the start of the search.
+     * Used to convert an unlimited ponder search to a normal search on a ponder hit.
+     */
+    final public void timeLimitFromNow(int minTimeLimit, int maxTimeLimit) {
+        synchronized (this) {
+            long elapsed = System.currentTimeMillis() - tStart;
+            minTimeMillis = (minTimeLimit < 0) ? minTimeLimit : minTimeLimit + elapsed;
+            maxTimeMillis = (maxTimeLimit < 0) ? maxTimeLimit : maxTimeLimit + elapsed;
+        }
+        scheduleStopTask();
+    }
+
+    private static synchronized Timer getTimer() {
+        if (timer == null)
+            timer = new Timer("search timer", true);
+        return timer;
+    }
+
+    /** Compute the adaptive minimum thinking time. Must be called with the lock held. */
+    private void updateSoftTime() {
+        if (minTimeMillis < 0) {
+            softTimeMillis = minTimeMillis;
+        } else {
+            softTimeMillis = (long)(minTimeMillis * softTimeFactor);
+            if (maxTimeMillis >= 0)
+                softTimeMillis = Math.min(softTimeMillis, maxTimeMillis);
+        }
+    }
+
+    /**
+     * Schedule a timer task that stops the search when the current time limit is reached.
+     * Called when the search starts and whenever the time limits change.
+     */
+    private synchronized void scheduleStopTask() {
+        if (stopTask != null) {
+            stopTask.cancel();
+            stopTask = null;
+        }
+        updateSoftTime();
+        if (!searching)
+            return;
+        long limit = nextTimeLimit(-1);
+        if (limit < 0)
+            return;
+        stopTask = new TimerTask() {
+            @Override
+            public void run() {
+                onStopTimer(this);
+            }
+        };
+        getTimer().schedule(stopTask, Math.max(0, tStart + limit - System.currentTimeMillis()));
+    }
+
+    /** Return the smallest time limit larger than "elapsed", or -1 if there is none. */
+    private long nextTimeLimit(long elapsed) {
+        long limit = -1;
+        if (softTimeMillis > elapsed)
+            limit = softTimeMillis;
+        if ((maxTimeMillis > elapsed) && ((limit < 0) || (maxTimeMillis < limit)))
+            limit = maxTimeMillis;
+        return limit;
+    }
+
+    /** Called by the timer thread when a time limit has been reached. */
+    private synchronized void onStopTimer(TimerTask task) {
+        if (task != stopTask)
+            return;
+        stopTask = null;
+        long elapsed = System.currentTimeMillis() - tStart;
+        long limit = searchNeedMoreTime ? maxTimeMillis : softTimeMillis;
+        if ((limit >= 0) && (elapsed >= limit)) {
+            stopRequested = true;
+        } else {
+            long next = nextTimeLimit(elapsed);
+            if (next >= 0) {
+                stopTask = new TimerTask() {
+                    @Override
+                    public void run() {
+                        onStopTimer(this);
+                    }
+                };
+                getTimer().schedule(stopTask, Math.max(0, tStart + next - System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /** Start timer tasks for a new search. */
+    private void startTimers() {
+        synchronized (this) {
+            searching = true;
+            softTimeFactor = 1.0;
+        }
+        scheduleStopTask();
+        if (listener != null) {
+            synchronized (this) {
+                statsTask = new TimerTask() {
+                    @Override
+                    public void run() {
+                        statsRequested = true;
+                    }
+                };
+                getTimer().scheduleAtFixedRate(statsTask, 1000, 1000);
+            }
+        }
+    }
+
+    /** Cancel timer tasks when a search is finished. */
+    private synchronized void stopTimers() {
+        searching = false;
+        if (stopTask != null) {
+            stopTask.cancel();
+            stopTask = null;
+        }
+        if (statsTask != null) {
+            statsTask.cancel();
+            statsTask = null;
+        }
+        statsRequested = false;
+    }
+
+    /**
+     * Adjust the minimum thinking time after a completed iteration. More time is used when
+     * the best move changes between iterations or the score drops, less when the best move
+     * has been stable for several iterations.
+     * @param bestMoveChanges Decaying count of best move changes in recent iterations.
+     * @param stableIters     Number of consecutive iterations with the same best move.
+     * @param scoreDrop       Score decrease compared to the previous iteration.
+     */
+    private void adjustTime(int bestMoveChanges, int stableIters, int scoreDrop) {
+        double f = 1.0 + 0.25 * Math.min(bestMoveChanges, 4);
+        if (scoreDrop > 20)
+            f *= 1.0 + Math.min(scoreDrop, 100) * 0.01;
+        else if ((stableIters >= 4) && (bestMoveChanges == 0))
+            f *= 0.7;
+        synchronized (this) {
+            softTimeFactor = f;
+        }
+        scheduleStopTask();
+    }
+
+    /**
+     * Set the evaluation hash table sizes, as log2 of the number of entries, for this
+     * search and for helper searches. Each search thread has its own tables.
+     * @param cacheLogSize       Evaluation cache size. A negative value disables the cache.
+     * @param pawnHashLogSize    Pawn hash table size.
+     * @param kingSafetyLogSize  King safety hash table size.
+     */
+    final public void setEvalHashLogSizes(int cacheLogSize, int pawnHashLogSize, int kingSafetyLogSize) {
+        if (cacheLogSize != evalCacheLogSize) {
+            evalCacheLogSize = cacheLogSize;
+            eval.setCacheSize(cacheLogSize);
+        }
+        if (pawnHashLogSize != this.pawnHashLogSize) {
+            this.pawnHashLogSize = pawnHashLogSize;
+            eval.setPawnHashSize(pawnHashLogSize);
+        }
+        if (kingSafetyLogSize != kingSafetyHashLogSize) {
+            kingSafetyHashLogSize = kingSafetyLogSize;
+            eval.setKingSafetyHashSize(kingSafetyLogSize);
+        }
+    }
+
+    /**
+     * Set the lazy evaluation margin used in the quiescence search, for this search and
+     * for helper searches. A negative margin disables lazy evaluation.
+     */
+    final public void setLazyEvalMargin(int margin) {
+        lazyEvalMargin = margin;
+        eval.setLazyEvalMargin(margin);
+    }
+
+    /**
+     * Get evaluation statistics. The counters are cumulative over all searches made by
+     * this Search object, and include the helper threads used by the last search.
+     */
+    final public void getEvalStats(Evaluate.Stats stats) {
+        eval.getStats(stats);
+        if (helpers != null) {
+            Evaluate.Stats hs = new Evaluate.Stats();
+            for (Search h : helpers) {
+                h.eval.getStats(hs);
+                stats.add(hs);
+            }
+        }
+    }
+
+    /**
+     * Get transposition table statistics for the last iterativeDeepening call,
+     * including the helper threads.
+     */
+    final public void getTTStats(TranspositionTable.Stats stats) {
+        stats.clear();
+        stats.add(ttStats);
+        if (helpers != null)
+            for (Search h : helpers)
+                stats.add(h.ttStats);
+        stats.hashFull = tt.hashFull();
+    }
+
+    /**
+     * Return the number of nodes searched by the last iterativeDeepening call,
+     * including nodes searched by helper threads.
+     */
+    final public long getTotalNodes() {
+        return totalNodes + getHelperNodes();
+    }
+
+    /** Return the number of nodes searched by helper threads in the last iterativeDeepening call. */
+    final long getHelperNodes() {
+        long n = 0;
+        if (helpers != null)
+            for (Search h : helpers)
+                n += h.totalNodes;
+        return n;
+    }
+
+    /**
+     * Return the number of quiescence search nodes searched by the last
+     * iterativeDeepening call, including nodes searched by helper threads.
+     */
+    final public long getTotalQNodes() {
+        long n = totalQNodes;
+        if (helpers != null)
+            for (Search h : helpers)
+                n += h.totalQNodes;
+        return n;
+    }
+
+    /**
+     * Set number of search threads. When larger than one, iterativeDeepening starts
+     * numThreads - 1 helper searches ("lazy SMP"). The helpers search the same root
+     * position with their own killer, history and evaluation state, and only communicate
+     * with the main search through the shared transposition table. The main search
+     * alone decides the returned move.
+     */
+    final public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
     }
 
     final public void setStrength(int strength, long randomSeed) {
@@ -178,11 +540,96 @@ public class Search {
         this.randomSeed = randomSeed;
     }
 
+    // Depth skipping pattern for helper threads, so that helpers search different depths
+    private static final int[] skipSize  = { 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4 };
+    private static final int[] skipPhase = { 0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7 };
+
+    /** Return true if a helper search should skip iteration "depth". */
+    private boolean skipDepth(int depth) {
+        if (helperId == 0)
+            return false;
+        int i = (helperId - 1) % skipSize.length;
+        return ((depth + skipPhase[i]) / skipSize[i]) % 2 != 0;
+    }
+
+    /**
+     * Start helper searches for a parallel search of the root moves. The helper Search
+     * objects are created the first time they are needed and then kept, so their killer,
+     * history and evaluation cache state carries over to later searches in the same game,
+     * in the same way as for the main search.
+     */
+    private void startHelpers(MoveGen.MoveList scMovesIn, final int maxDepth) {
+        final int nHelpers = numThreads - 1;
+        int nOld = 0;
+        if (helperPool == null) {
+            helperPool = new Search[nHelpers];
+        } else {
+            nOld = Math.min(helperPool.length, nHelpers);
+            if (helperPool.length != nHelpers)
+                helperPool = Arrays.copyOf(helperPool, nHelpers);
+        }
+        for (int i = 0; i < nHelpers; i++) {
+            if (i >= nOld) {
+                helperPool[i] = new Search(this, i + 1);
+            } else {
+                helperPool[i].ht.age();
+            }
+            final Search h = helperPool[i];
+            long[] hashList = h.posHashList;
+            if (hashList.length < posHashList.length)
+                hashList = new long[posHashList.length];
+            System.arraycopy(posHashList, 0, hashList, 0, posHashListSize);
+            h.setRootPosition(pos, hashList, posHashListSize);
+            h.setEvalHashLogSizes(evalCacheLogSize, pawnHashLogSize, kingSafetyHashLogSize);
+            h.setLazyEvalMargin(lazyEvalMargin);
+        }
+        helpers = helperPool;
+        helperThreads = new Thread[nHelpers];
+        for (int i = 0; i < nHelpers; i++) {
+            final Search h = helpers[i];
+            h.stopRequested = false; // Set by stopHelpers at the end of the previous search
+            final MoveGen.MoveList moves = new MoveGen.MoveList();
+            System.arraycopy(scMovesIn.m, 0, moves.m, 0, scMovesIn.size);
+            System.arraycopy(scMovesIn.score, 0, moves.score, 0, scMovesIn.size);
+            moves.size = scMovesIn.size;
+            helperThreads[i] = new Thread(null, new Runnable() {
+                public void run() {
+                    h.iterativeDeepening(moves, maxDepth, -1, false);
+                }
+            }, "search helper " + h.helperId, HELPER_STACK_SIZE);
+            helperThreads[i].start();
+        }
+    }
+
+    /** Stop all helper searches and wait for them to finish. */
+    private void stopHelpers() {
+        if (helperThreads == null)
+            return;
+        for (Search h : helpers)
+            h.stopRequested = true;
+        for (Thread t : helperThreads) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        helperThreads = null;
+    }
+
     final public Move iterativeDeepening(MoveGen.MoveList scMovesIn,
             int maxDepth, long initialMaxNodes, boolean verbose) {
         tStart = System.currentTimeMillis();
 //        log = TreeLogger.getWriter("/home/petero/treelog.dmp", pos);
         totalNodes = 0;
+        totalQNodes = 0;
+        ttStats.clear();
         if (scMovesIn.size <= 0)
             return null; // No moves to search
 
@@ -206,15 +653,18 @@ public class Search {
             scMoves = new MoveInfo[nIncludedMoves];
             for (int mi = 0, len = 0; mi < scMovesIn.size; mi++) {
                 if (includedMoves[mi]) {
-                    Move m = scMovesIn.m[mi];
-                    scMoves[len++] = new MoveInfo(m, 0);
+                    scMoves[len++] = new MoveInfo(scMovesIn.getMove(mi), 0, mi);
                 }
             }
         }
         maxNodes = initialMaxNodes;
-        nodesToGo = 0;
+        if (helperId == 0)
+            stopRequested = false;
+        startTimers();
         Position origPos = new Position(pos);
         int bestScoreLastIter = 0;
+        int bestMoveChanges = 0;
+        int stableIters = 0;
         boolean firstIteration = true;
         Move bestMove = scMoves[0].move;
         this.verbose = verbose;
@@ -224,15 +674,23 @@ public class Search {
         for (int i = 0; i < searchTreeInfo.length; i++) {
             searchTreeInfo[i].allowNullMove = true;
         }
+        helpers = null;
+        if ((numThreads > 1) && (helperId == 0) && !weak)
+            startHelpers(scMovesIn, maxDepth);
         try {
         for (int depthS = plyScale; ; depthS += plyScale, firstIteration = false) {
+            if (!firstIteration && (depthS < maxDepth * plyScale) && skipDepth(depthS / plyScale))
+                continue;
             initNodeStats();
             if (listener != null) listener.notifyDepth(depthS/plyScale);
             int aspirationDelta = (Math.abs(bestScoreLastIter) <= MATE0 / 2) ? 20 : 1000;
             int alpha = firstIteration ? -Search.MATE0 : Math.max(bestScoreLastIter - aspirationDelta, -Search.MATE0);
             int bestScore = -Search.MATE0;
             UndoInfo ui = new UndoInfo();
+            AttackInfo rootAttackInfo = new AttackInfo();
+            rootAttackInfo.compute(pos);
             boolean needMoreTime = false;
+            Move prevBestMove = bestMove;
             for (int mi = 0; mi < scMoves.length; mi++) {
                 searchNeedMoreTime = (mi > 0);
                 Move m = scMoves[mi].move;
@@ -241,7 +699,7 @@ public class Search {
                 }
                 nodes = qNodes = 0;
                 posHashList[posHashListSize++] = pos.zobristHash();
-                boolean givesCheck = MoveGen.givesCheck(pos, m);
+                boolean givesCheck = MoveGen.givesCheck(pos, m, rootAttackInfo);
                 int beta;
                 if (firstIteration) {
                     beta = Search.MATE0;
@@ -273,6 +731,7 @@ public class Search {
                     sti.lmr = 0;
                     score = -negaScout(-beta, -alpha, 1, depthS - plyScale, -1, givesCheck);
                 }
+                saveRootPV(scMoves[mi]);
                 long nodesThisMove = nodes + qNodes;
                 posHashListSize--;
                 pos.unMakeMove(m, ui);
@@ -284,7 +743,7 @@ public class Search {
                         type = TTEntry.T_GE;
                     }
                     m.score = score;
-                    tt.insert(pos.historyHash(), m, type, 0, depthS, UNKNOWN_SCORE);
+                    tt.insert(pos.historyHash(), m, type, 0, depthS, UNKNOWN_SCORE, ttStats);
                 }
                 if (score >= beta) {
                     int retryDelta = aspirationDelta * 2;
@@ -297,11 +756,13 @@ public class Search {
                         if (verbose)
                             System.out.printf("%-6s %6d %6d %6d >=\n", TextIO.moveToString(pos, m, false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, false, true, m);
+                        notifyPV(depthS/plyScale, score, false, true, scMoves[mi]);
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
                         int score2 = -negaScout(-beta, -score, 1, depthS - plyScale, -1, givesCheck);
+                        if (score2 >= score)
+                            saveRootPV(scMoves[mi]);
                         score = Math.max(score, score2);
                         nodesThisMove += nodes + qNodes;
                         posHashListSize--;
@@ -316,11 +777,12 @@ public class Search {
                         if (verbose)
                             System.out.printf("%-6s %6d %6d %6d <=\n", TextIO.moveToString(pos, m, false),
                                     score, nodes, qNodes);
-                        notifyPV(depthS/plyScale, score, true, false, m);
+                        notifyPV(depthS/plyScale, score, true, false, scMoves[mi]);
                         nodes = qNodes = 0;
                         posHashList[posHashListSize++] = pos.zobristHash();
                         pos.makeMove(m, ui);
                         score = -negaScout(-score, -alpha, 1, depthS - plyScale, -1, givesCheck);
+                        saveRootPV(scMoves[mi]);
                         nodesThisMove += nodes + qNodes;
                         posHashListSize--;
                         pos.unMakeMove(m, ui);
@@ -331,12 +793,8 @@ public class Search {
                     String PV = "";
                     if ((score > alpha) || (mi == 0)) {
                         havePV = true;
-                        if (verbose) {
-                            PV = TextIO.moveToString(pos, m, false) + " ";
-                            pos.makeMove(m, ui);
-                            PV += tt.extractPV(pos);
-                            pos.unMakeMove(m, ui);
-                        }
+                        if (verbose)
+                            PV = pvString(scMoves[mi]);
                     }
                     if (verbose) {
 /*                        System.out.printf("%2d %5d %5d %5d %6d %6d ",
@@ -347,7 +805,7 @@ public class Search {
                                 nodes, qNodes, (score > alpha ? " *" : ""), PV);
                     }
                     if (havePV && !firstIteration) {
-                        notifyPV(depthS/plyScale, score, false, false, m);
+                        notifyPV(depthS/plyScale, score, false, false, scMoves[mi]);
                     }
                 }
                 scMoves[mi].move.score = score;
@@ -365,7 +823,7 @@ public class Search {
                     }
                 }
                 if (!firstIteration) {
-                    long timeLimit = needMoreTime ? maxTimeMillis : minTimeMillis;
+                    long timeLimit = needMoreTime ? maxTimeMillis : softTimeMillis;
                     if (timeLimit >= 0) {
                         long tNow = System.currentTimeMillis();
                         if (tNow - tStart >= timeLimit)
@@ -376,7 +834,7 @@ public class Search {
             if (firstIteration) {
                 Arrays.sort(scMoves, new MoveInfo.SortByScore());
                 bestMove = scMoves[0].move;
-                notifyPV(depthS/plyScale, bestMove.score, false, false, bestMove);
+                notifyPV(depthS/plyScale, bestMove.score, false, false, scMoves[0]);
             }
             long tNow = System.currentTimeMillis();
             if (verbose) {
@@ -386,8 +844,18 @@ public class Search {
                 System.out.printf("Time: %.3f depth:%.2f nps:%d\n", (tNow - tStart) * .001, depthS/(double)plyScale,
                         (int)(totalNodes / ((tNow - tStart) * .001)));
             }
+            if (!firstIteration) {
+                if (bestMove == prevBestMove) {
+                    bestMoveChanges /= 2;
+                    stableIters++;
+                } else {
+                    bestMoveChanges = bestMoveChanges / 2 + 1;
+                    stableIters = 0;
+                }
+                adjustTime(bestMoveChanges, stableIters, bestScoreLastIter - bestScore);
+            }
             if (maxTimeMillis >= 0) {
-                if (tNow - tStart >= minTimeMillis)
+                if (tNow - tStart >= softTimeMillis)
                     break;
             }
             if (depthS >= maxDepth * plyScale)
@@ -409,7 +877,11 @@ public class Search {
         } catch (StopSearch ss) {
             pos = origPos;
         }
+        stopHelpers();
+        stopTimers();
         notifyStats();
+        for (MoveInfo mi : scMoves)
+            scMovesIn.score[mi.listIdx] = mi.move.score;
 
         if (log != null) {
             log.close();
@@ -418,7 +890,42 @@ public class Search {
         return bestMove;
     }
 
-    private void notifyPV(int depth, int score, boolean uBound, boolean lBound, Move m) {
+    /** Set the PV at ply to move m followed by the PV at ply + 1. */
+    private void updatePV(int ply, int m) {
+        final int[] pv = pvTable[ply];
+        final int len = pvLength[ply + 1];
+        pv[0] = m;
+        System.arraycopy(pvTable[ply + 1], 0, pv, 1, len);
+        pvLength[ply] = len + 1;
+    }
+
+    /** Store the root move of mi followed by the PV at ply 1 in mi. */
+    private void saveRootPV(MoveInfo mi) {
+        if (mi.pv == null)
+            mi.pv = new int[pvTable[0].length];
+        final int len = pvLength[1];
+        mi.pv[0] = mi.move.encode();
+        System.arraycopy(pvTable[1], 0, mi.pv, 1, len);
+        mi.pvLength = len + 1;
+    }
+
+    /** Return the PV for a root move as a string. */
+    private String pvString(MoveInfo mi) {
+        StringBuilder ret = new StringBuilder(100);
+        Position p = new Position(pos);
+        UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, 0);
+        for (int i = 0; i < mi.pvLength; i++) {
+            m.decode(mi.pv[i]);
+            if (i > 0)
+                ret.append(' ');
+            ret.append(TextIO.moveToString(p, m, false));
+            p.makeMove(m, ui);
+        }
+        return ret.toString();
+    }
+
+    private void notifyPV(int depth, int score, boolean uBound, boolean lBound, MoveInfo mi) {
         if (listener != null) {
             boolean isMate = false;
             if (score > MATE0 / 2) {
@@ -430,23 +937,36 @@ public class Search {
             }
             long tNow = System.currentTimeMillis();
             int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
-            ArrayList<Move> pv = tt.extractPVMoves(pos, m);
-            listener.notifyPV(depth, score, time, totalNodes, nps, isMate, uBound, lBound, pv);
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
+            pvList.clear();
+            if (mi.pv == null) {
+                pvList.add(mi.move);
+            } else {
+                for (int i = 0; i < mi.pvLength; i++) {
+                    pvMoves[i].decode(mi.pv[i]);
+                    pvList.add(pvMoves[i]);
+                }
+            }
+            listener.notifyPV(depth, score, time, nodes, nps, isMate, uBound, lBound, pvList);
         }
     }
 
     private void notifyStats() {
-        long tNow = System.currentTimeMillis();
         if (listener != null) {
+            long tNow = System.currentTimeMillis();
             int time = (int) (tNow - tStart);
-            int nps = (time > 0) ? (int)(totalNodes / (time / 1000.0)) : 0;
-            listener.notifyStats(totalNodes, nps, time);
+            long nodes = getTotalNodes();
+            int nps = (time > 0) ? (int)(nodes / (time / 1000.0)) : 0;
+            listener.notifyStats(nodes, nps, time);
+            getTTStats(notifyTTStats);
+            listener.notifyTTStats(notifyTTStats);
         }
-        tLastStats = tNow;
     }
 
-    private static final Move emptyMove = new Move(0, 0, Piece.EMPTY, 0);
+    private final TranspositionTable.Stats notifyTTStats = new TranspositionTable.Stats();
+
+    private final Move emptyMove = new Move(0, 0, Piece.EMPTY, 0);
 
     /** 
      * Main recursive search algorithm.
@@ -454,22 +974,17 @@ public class Search {
      */
     final public int negaScout(int alpha, int beta, int ply, int depth, int recaptureSquare,
                                final boolean inCheck) throws StopSearch {
+        pvLength[ply] = 0;
         if (log != null) {
             SearchTreeInfo sti = searchTreeInfo[ply-1];
             long idx = log.logNodeStart(sti.nodeIdx, sti.currentMove, alpha, beta, ply, depth/plyScale);
             searchTreeInfo[ply].nodeIdx = idx;
         }
-        if (--nodesToGo <= 0) {
-            nodesToGo = nodesBetweenTimeCheck;
-            long tNow = System.currentTimeMillis();
-            long timeLimit = searchNeedMoreTime ? maxTimeMillis : minTimeMillis;
-            if (    ((timeLimit >= 0) && (tNow - tStart >= timeLimit)) ||
-                    ((maxNodes >= 0) && (totalNodes >= maxNodes))) {
-                throw new StopSearch();
-            }
-            if (tNow - tLastStats >= 1000) {
-                notifyStats();
-            }
+        if (stopRequested || ((maxNodes >= 0) && (totalNodes >= maxNodes)))
+            throw new StopSearch();
+        if (statsRequested) {
+            statsRequested = false;
+            notifyStats();
         }
         
         // Collect statistics
@@ -487,8 +1002,7 @@ public class Search {
                 return score;
             }
             if (inCheck) {
-                MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-                MoveGen.removeIllegal(pos, moves);
+                MoveGen.MoveList moves = moveGen.legalMoves(pos);
                 if (moves.size == 0) {            // Can't claim draw if already check mated.
                     int score = -(MATE0-(ply+1));
                     if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
@@ -500,36 +1014,40 @@ public class Search {
             if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, 0, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
             return 0;
         }
-        if (canClaimDrawRep(pos, posHashList, posHashListSize, posHashFirstNew)) {
+        if (isRepetition()) {
             if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, 0, TTEntry.T_EXACT, UNKNOWN_SCORE, hKey);
             return 0;            // No need to test for mate here, since it would have been
                                  // discovered the first time the position came up.
         }
+        if ((beta <= 0) && hasUpcomingRep()) {
+            if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, 0, TTEntry.T_GE, UNKNOWN_SCORE, hKey);
+            return 0;            // Can move to a repeated position, so score is at least a draw
+        }
 
         int evalScore = UNKNOWN_SCORE;
         // Check transposition table
-        TTEntry ent = tt.probe(hKey);
-        Move hashMove = null;
+        int hashMove = 0;
         SearchTreeInfo sti = searchTreeInfo[ply];
-        if (ent.type != TTEntry.T_EMPTY) {
+        TTEntry ent = sti.ent;
+        tt.probe(hKey, ent, ttStats);
+        if (ent.getType() != TTEntry.T_EMPTY) {
             int score = ent.getScore(ply);
-            evalScore = ent.evalScore;
+            evalScore = ent.getEvalScore();
             int plyToMate = MATE0 - Math.abs(score);
             int eDepth = ent.getDepth();
-            hashMove = sti.hashMove;
-            ent.getMove(hashMove);
-            if ((beta == alpha + 1) && ((eDepth >= depth) || (eDepth >= plyToMate*plyScale))) {
-                if (    (ent.type == TTEntry.T_EXACT) ||
-                        (ent.type == TTEntry.T_GE) && (score >= beta) ||
-                        (ent.type == TTEntry.T_LE) && (score <= alpha)) {
+            hashMove = ent.getMove();
+            if ((beta == alpha + 1) && ((eDepth >= Math.max(depth, 0)) || (eDepth >= plyToMate*plyScale))) {
+                if (    (ent.getType() == TTEntry.T_EXACT) ||
+                        (ent.getType() == TTEntry.T_GE) && (score >= beta) ||
+                        (ent.getType() == TTEntry.T_LE) && (score <= alpha)) {
                     if (score >= beta) {
-                        hashMove = sti.hashMove;
-                        if ((hashMove != null) && (hashMove.from != hashMove.to))
-                            if (pos.getPiece(hashMove.to) == Piece.EMPTY)
+                        if (Move.getFrom(hashMove) != Move.getTo(hashMove))
+                            if (pos.getPiece(Move.getTo(hashMove)) == Piece.EMPTY)
                                 kt.addKiller(ply, hashMove);
                     }
-                    sti.bestMove = hashMove;
-                    if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, ent.type, evalScore, hKey);
+                    sti.bestMove.decode(hashMove);
+                    ttStats.cutoffs++;
+                    if (log != null) log.logNodeEnd(searchTreeInfo[ply].nodeIdx, score, ent.getType(), evalScore, hKey);
                     return score;
                 }
             }
@@ -549,7 +1067,7 @@ public class Search {
                 type = TTEntry.T_GE;
             }
             sti.bestMove.score = score;
-            tt.insert(hKey, sti.bestMove, type, ply, depth, q0Eval);
+            tt.insert(hKey, sti.bestMove, type, ply, depth, q0Eval, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, score, type, q0Eval, hKey);
             return score;
         }
@@ -565,7 +1083,7 @@ public class Search {
                 int score = quiesce(alpha-razorMargin, beta-razorMargin, ply, 0, inCheck);
                 if (score <= alpha-razorMargin) {
                     emptyMove.score = score;
-                    tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, q0Eval);
+                    tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, q0Eval, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_LE, q0Eval, hKey);
                     return score;
                 }
@@ -591,7 +1109,7 @@ public class Search {
                     evalScore = eval.evalPos(pos);
                 if (evalScore - margin >= beta) {
                     emptyMove.score = evalScore - margin;
-                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore);
+                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, evalScore - margin, TTEntry.T_GE, evalScore, hKey);
                     return evalScore - margin;
                 }
@@ -634,7 +1152,7 @@ public class Search {
                     if (score > MATE0 / 2)
                         score = beta;
                     emptyMove.score = score;
-                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore);
+                    tt.insert(hKey, emptyMove, TTEntry.T_GE, ply, depth, evalScore, ttStats);
                     if (log != null) log.logNodeEnd(sti.nodeIdx, score, TTEntry.T_GE, evalScore, hKey);
                     return score;
                 } else {
@@ -670,7 +1188,7 @@ public class Search {
             }
         }
 
-        if ((depth > 4*plyScale) && ((hashMove == null) || (hashMove.from == hashMove.to))) {
+        if ((depth > 4*plyScale) && (Move.getFrom(hashMove) == Move.getTo(hashMove))) {
             boolean isPv = beta > alpha + 1;
             if (isPv || (depth > 8 * plyScale)) {
                 // No hash move. Try internal iterative deepening.
@@ -678,44 +1196,31 @@ public class Search {
                 int newDepth = isPv ? depth  - 2 * plyScale : depth * 3 / 8;
                 negaScout(alpha, beta, ply, newDepth, -1, inCheck);
                 sti.nodeIdx = savedNodeIdx;
-                ent = tt.probe(hKey);
-                if (ent.type != TTEntry.T_EMPTY) {
-                    hashMove = sti.hashMove;
-                    ent.getMove(hashMove);
-                }
+                tt.probe(hKey, ent, ttStats);
+                if (ent.getType() != TTEntry.T_EMPTY)
+                    hashMove = ent.getMove();
             }
         }
 
         // Start searching move alternatives
-        MoveGen.MoveList moves;
-        if (inCheck)
-            moves = moveGen.checkEvasions(pos);
-        else 
-            moves = moveGen.pseudoLegalMoves(pos);
-        boolean seeDone = false;
-        boolean hashMoveSelected = true;
-        if (!selectHashMove(moves, hashMove)) {
-            scoreMoveList(moves, ply);
-            seeDone = true;
-            hashMoveSelected = false;
-        }
+        MovePicker mp = sti.movePicker;
+        mp.init(pos, ply, hashMove, inCheck);
+        MoveGen.MoveList moves = mp.moves;
 
         UndoInfo ui = sti.undoInfo;
+        AttackInfo ai = sti.attackInfo;
+        ai.compute(pos);
+        pvLength[ply] = 0; // Null move, IID and razoring searches may have set a PV at this ply
         boolean haveLegalMoves = false;
         int illegalScore = -(MATE0-(ply+1));
         int b = beta;
         int bestScore = illegalScore;
         int bestMove = -1;
         int lmrCount = 0;
-        for (int mi = 0; mi < moves.size; mi++) {
-            if ((mi == 1) && !seeDone) {
-                scoreMoveList(moves, ply, 1);
-                seeDone = true;
-            }
-            if ((mi > 0) || !hashMoveSelected) {
-                selectBest(moves, mi);
-            }
-            Move m = moves.m[mi];
+        for (int mi = 0; mp.next(mi); mi++) {
+            Move m = sti.searchMove;
+            m.decode(moves.m[mi]);
+            m.score = moves.score[mi];
             if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
                 moveGen.returnMoveList(moves);
                 int score = MATE0-ply;
@@ -727,18 +1232,22 @@ public class Search {
             boolean isPromotion = (m.promoteTo != Piece.EMPTY);
             int sVal = Integer.MIN_VALUE;
             boolean mayReduce = (m.score < 53) && (!isCapture || m.score < 0) && !isPromotion;
-            boolean givesCheck = MoveGen.givesCheck(pos, m); 
+            boolean givesCheck = MoveGen.givesCheck(pos, m, ai);
             boolean doFutility = false;
             if (mayReduce && haveLegalMoves && !givesCheck && !passedPawnPush(pos, m)) {
                 if ((Math.abs(alpha) <= MATE0 / 2) && (Math.abs(beta) <= MATE0 / 2)) {
-                    int moveCountLimit;
-                    if (depth <= plyScale)          moveCountLimit = 3;
-                    else if (depth <= 2 * plyScale) moveCountLimit = 6;
-                    else if (depth <= 3 * plyScale) moveCountLimit = 12;
-                    else if (depth <= 4 * plyScale) moveCountLimit = 24;
-                    else moveCountLimit = 256;
-                    if (mi >= moveCountLimit)
-                        continue; // Late move pruning
+                    if (lmpEnabled && (depth <= 4 * plyScale)) {
+                        int d = (depth <= plyScale) ? 1 : (depth + plyScale - 1) / plyScale;
+                        if (mi >= lmpMoveCount[d])
+                            continue; // Late move pruning
+                    }
+                    if (!inCheck && (depth <= seePruneDepth * plyScale) &&
+                            (isCapture ? seePruneCaptures : seePruneQuiets)) {
+                        int margin = isCapture ? seeCaptureMargin : seeQuietMargin;
+                        sVal = SEE(m);
+                        if (sVal < -margin * Math.max(depth, plyScale) / plyScale)
+                            continue; // SEE pruning
+                    }
                 }
                 if (futilityPrune)
                     doFutility = true;
@@ -837,21 +1346,24 @@ public class Search {
             if (score > alpha) {
                 alpha = score;
                 bestMove = mi;
+                if (score != illegalScore)
+                    updatePV(ply, moves.m[mi]);
                 sti.bestMove.from      = m.from;
                 sti.bestMove.to        = m.to;
                 sti.bestMove.promoteTo = m.promoteTo;
             }
             if (alpha >= beta) {
                 if (pos.getPiece(m.to) == Piece.EMPTY) {
-                    kt.addKiller(ply, m);
-                    ht.addSuccess(pos, m, depth/plyScale);
+                    kt.addKiller(ply, moves.m[mi]);
+                    int hCtx = History.getContext(pos, searchTreeInfo[ply-1].currentMove);
+                    ht.addSuccess(pos, moves.m[mi], depth/plyScale, hCtx);
                     for (int mi2 = mi - 1; mi2 >= 0; mi2--) {
-                        Move m2 = moves.m[mi2];
-                        if (pos.getPiece(m2.to) == Piece.EMPTY)
-                            ht.addFail(pos, m2, depth/plyScale);
+                        int m2 = moves.m[mi2];
+                        if (pos.getPiece(Move.getTo(m2)) == Piece.EMPTY)
+                            ht.addFail(pos, m2, depth/plyScale, hCtx);
                     }
                 }
-                tt.insert(hKey, m, TTEntry.T_GE, ply, depth, evalScore);
+                tt.insert(hKey, moves.m[mi], score, TTEntry.T_GE, ply, depth, evalScore, ttStats);
                 moveGen.returnMoveList(moves);
                 if (log != null) log.logNodeEnd(sti.nodeIdx, alpha, TTEntry.T_GE, evalScore, hKey);
                 return alpha;
@@ -864,11 +1376,11 @@ public class Search {
             return 0;       // Stale-mate
         }
         if (bestMove >= 0) {
-            tt.insert(hKey, moves.m[bestMove], TTEntry.T_EXACT, ply, depth, evalScore);
+            tt.insert(hKey, moves.m[bestMove], bestScore, TTEntry.T_EXACT, ply, depth, evalScore, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, bestScore, TTEntry.T_EXACT, evalScore, hKey);
         } else {
             emptyMove.score = bestScore;
-            tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, evalScore);
+            tt.insert(hKey, emptyMove, TTEntry.T_LE, ply, depth, evalScore, ttStats);
             if (log != null) log.logNodeEnd(sti.nodeIdx, bestScore, TTEntry.T_LE, evalScore, hKey);
         }
         moveGen.returnMoveList(moves);
@@ -926,17 +1438,43 @@ public class Search {
      * Quiescence search. Only non-losing captures are searched.
      */
     private int quiesce(int alpha, int beta, int ply, int depth, final boolean inCheck) {
+        pvLength[ply] = 0;
+        // The first quiescence ply is stored in the transposition table by negaScout.
+        // Deeper plies, where only captures are searched, have their own entries.
+        boolean useHash = quiesceHash && (depth < 0) && !inCheck;
+        long hKey = 0;
+        int ttEval = UNKNOWN_SCORE;
+        if (useHash) {
+            hKey = pos.historyHash();
+            TTEntry ent = searchTreeInfo[ply].ent;
+            tt.probe(hKey, ent, ttStats);
+            if (ent.getType() != TTEntry.T_EMPTY) {
+                int score = ent.getScore(ply);
+                if ((beta == alpha + 1) &&
+                        ((ent.getType() == TTEntry.T_EXACT) ||
+                         (ent.getType() == TTEntry.T_GE) && (score >= beta) ||
+                         (ent.getType() == TTEntry.T_LE) && (score <= alpha))) {
+                    ttStats.cutoffs++;
+                    return score;
+                }
+                ttEval = ent.getEvalScore(); // Only set by negaScout, never a lazy evaluation
+            }
+        }
+        final int alphaOrig = alpha;
         int score;
         if (inCheck) {
             score = -(MATE0 - (ply+1));
+        } else if (depth == 0) {
+            // q0Eval is stored in the transposition table, so lazy evaluation can not be used
+            if (q0Eval == UNKNOWN_SCORE)
+                q0Eval = eval.evalPos(pos);
+            score = q0Eval;
+        } else if (ttEval != UNKNOWN_SCORE) {
+            score = ttEval;
         } else {
-            if ((depth == 0) && (q0Eval != UNKNOWN_SCORE)) {
-                score = q0Eval;
-            } else {
-                score = eval.evalPos(pos);
-                if (depth == 0)
-                    q0Eval = score;
-            }
+            score = eval.evalPos(pos, alpha, beta);
+            if (eval.lastEvalWasLazy())
+                useHash = false; // The stand pat score is only an estimate, so the result is not a valid bound
         }
         if (score >= beta) {
             if ((depth == 0) && (score < MATE0 - ply)) {
@@ -945,12 +1483,15 @@ public class Search {
                     score = MATE0 - ply;
                 }
             }
+            if (useHash)
+                tt.insertQS(hKey, 0, score, TTEntry.T_GE, ply, ttStats);
             return score;
         }
         final int evalScore = score;
         if (score > alpha)
             alpha = score;
         int bestScore = score;
+        int bestMove = 0;
         final boolean tryChecks = (depth > -1);
         MoveGen.MoveList moves;
         if (inCheck) {
@@ -962,13 +1503,16 @@ public class Search {
         }
         scoreMoveListMvvLva(moves);
         UndoInfo ui = searchTreeInfo[ply].undoInfo;
+        AttackInfo ai = searchTreeInfo[ply].attackInfo;
+        boolean aiComputed = false; // Only computed if a check test is needed
         for (int mi = 0; mi < moves.size; mi++) {
             if (mi < 8) {
                 // If the first 8 moves didn't fail high, this is probably an ALL-node,
                 // so spending more effort on move ordering is probably wasted time.
                 selectBest(moves, mi);
             }
-            Move m = moves.m[mi];
+            Move m = searchTreeInfo[ply].searchMove;
+            m.decode(moves.m[mi]);
             if (pos.getPiece(m.to) == (pos.whiteMove ? Piece.BKING : Piece.WKING)) {
                 moveGen.returnMoveList(moves);
                 return MATE0-ply;       // King capture
@@ -982,7 +1526,11 @@ public class Search {
                     // Non-capture
                     if (!tryChecks)
                         continue;
-                    givesCheck = MoveGen.givesCheck(pos, m);
+                    if (!aiComputed) {
+                        ai.compute(pos);
+                        aiComputed = true;
+                    }
+                    givesCheck = MoveGen.givesCheck(pos, m, ai);
                     givesCheckComputed = true;
                     if (!givesCheck)
                         continue;
@@ -998,7 +1546,11 @@ public class Search {
                         if ((pos.wMtrlPawns > 0) && (pos.wMtrl > capt + pos.wMtrlPawns) &&
                             (pos.bMtrlPawns > 0) && (pos.bMtrl > capt + pos.bMtrlPawns)) {
                             if (depth -1 > -2) {
-                                givesCheck = MoveGen.givesCheck(pos, m);
+                                if (!aiComputed) {
+                                    ai.compute(pos);
+                                    aiComputed = true;
+                                }
+                                givesCheck = MoveGen.givesCheck(pos, m, ai);
                                 givesCheckComputed = true;
                             }
                             if (!givesCheck) {
@@ -1013,13 +1565,18 @@ public class Search {
 
             if (!givesCheckComputed) {
                 if (depth - 1 > -2) {
-                    givesCheck = MoveGen.givesCheck(pos, m);
+                    if (!aiComputed) {
+                        ai.compute(pos);
+                        aiComputed = true;
+                    }
+                    givesCheck = MoveGen.givesCheck(pos, m, ai);
                 }
             }
             final boolean nextInCheck = (depth - 1) > -2 ? givesCheck : false;
 
             pos.makeMove(m, ui); 
             qNodes++;
+            totalQNodes++;
             totalNodes++;
             score = -quiesce(-beta, -alpha, ply + 1, depth - 1, nextInCheck);
             pos.unMakeMove(m, ui);
@@ -1031,14 +1588,22 @@ public class Search {
                         sti.bestMove.setMove(m.from, m.to, m.promoteTo, score);
                     }
                     alpha = score;
+                    bestMove = moves.m[mi];
+                    updatePV(ply, bestMove);
                     if (alpha >= beta) {
                         moveGen.returnMoveList(moves);
+                        if (useHash)
+                            tt.insertQS(hKey, bestMove, alpha, TTEntry.T_GE, ply, ttStats);
                         return alpha;
                     }
                 }
             }
         }
         moveGen.returnMoveList(moves);
+        if (useHash) {
+            int type = (bestScore > alphaOrig) ? TTEntry.T_EXACT : TTEntry.T_LE;
+            tt.insertQS(hKey, bestMove, bestScore, type, ply, ttStats);
+        }
         return bestScore;
     }
 
@@ -1061,18 +1626,24 @@ public class Search {
     }
 
     private int[] captures = new int[64];   // Value of captured pieces
-    private UndoInfo seeUi = new UndoInfo();
 
     /**
      * Static exchange evaluation function.
+     * The position is not modified. The exchange is simulated by removing pieces from an
+     * occupancy bitboard, and sliding pieces behind the capturing pieces (x-rays) are
+     * added to the set of attackers when the piece in front of them is removed.
      * @return SEE score for m. Positive value is good for the side that makes the first move.
      */
     final public int SEE(Move m) {
         final int kV = Evaluate.kV;
-        
+        final long[] pieceTypeBB = pos.pieceTypeBB;
+
         final int square = m.to;
-        if (square == pos.getEpSquare()) {
+        final int p = pos.getPiece(m.from);
+        long occupied = (pos.whiteBB | pos.blackBB) & ~(1L << m.from);
+        if ((square == pos.getEpSquare()) && ((p == Piece.WPAWN) || (p == Piece.BPAWN))) {
             captures[0] = Evaluate.pV;
+            occupied &= ~(1L << ((p == Piece.WPAWN) ? square - 8 : square + 8));
         } else {
             captures[0] = Evaluate.pieceValue[pos.getPiece(square)];
             if (captures[0] == kV)
@@ -1080,91 +1651,60 @@ public class Search {
         }
         int nCapt = 1;                  // Number of entries in captures[]
 
-        pos.makeSEEMove(m, seeUi);
-        boolean white = pos.whiteMove;
-        int valOnSquare = Evaluate.pieceValue[pos.getPiece(square)];
-        long occupied = pos.whiteBB | pos.blackBB;
+        final long bishops = pieceTypeBB[Piece.WBISHOP] | pieceTypeBB[Piece.BBISHOP] |
+                             pieceTypeBB[Piece.WQUEEN] | pieceTypeBB[Piece.BQUEEN];
+        final long rooks = pieceTypeBB[Piece.WROOK] | pieceTypeBB[Piece.BROOK] |
+                           pieceTypeBB[Piece.WQUEEN] | pieceTypeBB[Piece.BQUEEN];
+        long attackers = (BitBoard.bPawnAttacks[square] & pieceTypeBB[Piece.WPAWN]) |
+                         (BitBoard.wPawnAttacks[square] & pieceTypeBB[Piece.BPAWN]) |
+                         (BitBoard.knightAttacks[square] & (pieceTypeBB[Piece.WKNIGHT] | pieceTypeBB[Piece.BKNIGHT])) |
+                         (BitBoard.kingAttacks[square] & (pieceTypeBB[Piece.WKING] | pieceTypeBB[Piece.BKING])) |
+                         (BitBoard.bishopAttacks(square, occupied) & bishops) |
+                         (BitBoard.rookAttacks(square, occupied) & rooks);
+        attackers &= occupied;
+
+        boolean white = !pos.whiteMove;
+        int valOnSquare = Evaluate.pieceValue[p];
         while (true) {
-            int bestValue = Integer.MAX_VALUE;
+            final long sideAtk = attackers & (white ? pos.whiteBB : pos.blackBB);
+            if (sideAtk == 0)
+                break;
+            final int pOffs = white ? 0 : Piece.BKING - Piece.WKING;
+            int bestValue;
             long atk;
-            if (white) {
-                atk = BitBoard.bPawnAttacks[square] & pos.pieceTypeBB[Piece.WPAWN] & occupied;
-                if (atk != 0) {
-                    bestValue = Evaluate.pV;
-                } else {
-                    atk = BitBoard.knightAttacks[square] & pos.pieceTypeBB[Piece.WKNIGHT] & occupied;
-                    if (atk != 0) {
-                        bestValue = Evaluate.nV;
-                    } else {
-                        long bAtk = BitBoard.bishopAttacks(square, occupied) & occupied;
-                        atk = bAtk & pos.pieceTypeBB[Piece.WBISHOP];
-                        if (atk != 0) {
-                            bestValue = Evaluate.bV;
-                        } else {
-                            long rAtk = BitBoard.rookAttacks(square, occupied) & occupied;
-                            atk = rAtk & pos.pieceTypeBB[Piece.WROOK];
-                            if (atk != 0) {
-                                bestValue = Evaluate.rV;
-                            } else {
-                                atk = (bAtk | rAtk) & pos.pieceTypeBB[Piece.WQUEEN];
-                                if (atk != 0) {
-                                    bestValue = Evaluate.qV;
-                                } else {
-                                    atk = BitBoard.kingAttacks[square] & pos.pieceTypeBB[Piece.WKING] & occupied;
-                                    if (atk != 0) {
-                                        bestValue = kV;
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+            boolean diag = false, line = false; // X-ray directions uncovered by the capture
+            if ((atk = sideAtk & pieceTypeBB[Piece.WPAWN + pOffs]) != 0) {
+                bestValue = Evaluate.pV;
+                diag = true;
+            } else if ((atk = sideAtk & pieceTypeBB[Piece.WKNIGHT + pOffs]) != 0) {
+                bestValue = Evaluate.nV;
+            } else if ((atk = sideAtk & pieceTypeBB[Piece.WBISHOP + pOffs]) != 0) {
+                bestValue = Evaluate.bV;
+                diag = true;
+            } else if ((atk = sideAtk & pieceTypeBB[Piece.WROOK + pOffs]) != 0) {
+                bestValue = Evaluate.rV;
+                line = true;
+            } else if ((atk = sideAtk & pieceTypeBB[Piece.WQUEEN + pOffs]) != 0) {
+                bestValue = Evaluate.qV;
+                diag = line = true;
             } else {
-                atk = BitBoard.wPawnAttacks[square] & pos.pieceTypeBB[Piece.BPAWN] & occupied;
-                if (atk != 0) {
-                    bestValue = Evaluate.pV;
-                } else {
-                    atk = BitBoard.knightAttacks[square] & pos.pieceTypeBB[Piece.BKNIGHT] & occupied;
-                    if (atk != 0) {
-                        bestValue = Evaluate.nV;
-                    } else {
-                        long bAtk = BitBoard.bishopAttacks(square, occupied) & occupied;
-                        atk = bAtk & pos.pieceTypeBB[Piece.BBISHOP];
-                        if (atk != 0) {
-                            bestValue = Evaluate.bV;
-                        } else {
-                            long rAtk = BitBoard.rookAttacks(square, occupied) & occupied;
-                            atk = rAtk & pos.pieceTypeBB[Piece.BROOK];
-                            if (atk != 0) {
-                                bestValue = Evaluate.rV;
-                            } else {
-                                atk = (bAtk | rAtk) & pos.pieceTypeBB[Piece.BQUEEN];
-                                if (atk != 0) {
-                                    bestValue = Evaluate.qV;
-                                } else {
-                                    atk = BitBoard.kingAttacks[square] & pos.pieceTypeBB[Piece.BKING] & occupied;
-                                    if (atk != 0) {
-                                        bestValue = kV;
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+                atk = sideAtk & pieceTypeBB[Piece.WKING + pOffs];
+                bestValue = kV;
+                diag = line = true;
             }
             captures[nCapt++] = valOnSquare;
             if (valOnSquare == kV)
                 break;
             valOnSquare = bestValue;
             occupied &= ~(atk & -atk);
+            if (diag)
+                attackers |= BitBoard.bishopAttacks(square, occupied) & bishops;
+            if (line)
+                attackers |= BitBoard.rookAttacks(square, occupied) & rooks;
+            attackers &= occupied;
             white = !white;
         }
-        pos.unMakeSEEMove(m, seeUi);
-        
+
         int score = 0;
         for (int i = nCapt - 1; i > 0; i--) {
             score = Math.max(0, captures[i] - score);
@@ -1180,8 +1720,12 @@ public class Search {
         scoreMoveList(moves, ply, 0);
     }
     final void scoreMoveList(MoveGen.MoveList moves, int ply, int startIdx) {
+        final Move m = scoreMove;
+        final int hCtx = (ply > 0) ? History.getContext(pos, searchTreeInfo[ply-1].currentMove) : -1;
+        final int counterMove = ht.getCounterMove(hCtx);
         for (int i = startIdx; i < moves.size; i++) {
-            Move m = moves.m[i];
+            int move = moves.m[i];
+            m.decode(move);
             boolean isCapture = (pos.getPiece(m.to) != Piece.EMPTY) || (m.promoteTo != Piece.EMPTY);
             int score = 0;
             if (isCapture) {
@@ -1197,22 +1741,26 @@ public class Search {
                     score -= 1000000;
                 score *= 100;
             }
-            int ks = kt.getKillerScore(ply, m);
+            int ks = kt.getKillerScore(ply, move);
             if (ks > 0) {
                 score += ks + 50;
+            } else if ((move == counterMove) && !isCapture) {
+                score += 50;
             } else {
-                int hs = ht.getHistScore(pos, m);
+                int hs = ht.getHistScore(pos, move, hCtx);
                 score += hs;
             }
-            m.score = score;
+            moves.score[i] = score;
         }
     }
+    private final Move scoreMove = new Move(0, 0, 0);
+
     private void scoreMoveListMvvLva(MoveGen.MoveList moves) {
         for (int i = 0; i < moves.size; i++) {
-            Move m = moves.m[i];
-            int v = pos.getPiece(m.to);
-            int a = pos.getPiece(m.from);
-            m.score = Evaluate.pieceValue[v] * 10000 - Evaluate.pieceValue[a];
+            int move = moves.m[i];
+            int v = pos.getPiece(Move.getTo(move));
+            int a = pos.getPiece(Move.getFrom(move));
+            moves.score[i] = Evaluate.pieceValue[v] * 10000 - Evaluate.pieceValue[a];
         }
     }
 
@@ -1220,33 +1768,39 @@ public class Search {
      * Find move with highest score and move it to the front of the list.
      */
     static void selectBest(MoveGen.MoveList moves, int startIdx) {
+        final int[] scores = moves.score;
         int bestIdx = startIdx;
-        int bestScore = moves.m[bestIdx].score;
+        int bestScore = scores[bestIdx];
         for (int i = startIdx + 1; i < moves.size; i++) {
-            int sc = moves.m[i].score;
+            int sc = scores[i];
             if (sc > bestScore) {
                 bestIdx = i;
                 bestScore = sc;
             }
         }
         if (bestIdx != startIdx) {
-            Move m = moves.m[startIdx];
+            int m = moves.m[startIdx];
             moves.m[startIdx] = moves.m[bestIdx];
             moves.m[bestIdx] = m;
+            scores[bestIdx] = scores[startIdx];
+            scores[startIdx] = bestScore;
         }
     }
 
-    /** If hashMove exists in the move list, move the hash move to the front of the list. */
-    static boolean selectHashMove(MoveGen.MoveList moves, Move hashMove) {
-        if (hashMove == null) {
+    /**
+     * If hashMove exists in the move list, move the hash move to the front of the list.
+     * @param hashMove  The hash move in int encoded form, or 0 if there is no hash move.
+     */
+    static boolean selectHashMove(MoveGen.MoveList moves, int hashMove) {
+        if (hashMove == 0) {
             return false;
         }
         for (int i = 0; i < moves.size; i++) {
-            Move m = moves.m[i];
-            if (m.equals(hashMove)) {
+            if (moves.m[i] == hashMove) {
                 moves.m[i] = moves.m[0];
-                moves.m[0] = m;
-                m.score = 10000;
+                moves.score[i] = moves.score[0];
+                moves.m[0] = hashMove;
+                moves.score[0] = 10000;
                 return true;
             }
         }
@@ -1259,7 +1813,8 @@ public class Search {
     
     public static boolean canClaimDrawRep(Position pos, long[] posHashList, int posHashListSize, int posHashFirstNew) {
         int reps = 0;
-        for (int i = posHashListSize - 4; i >= 0; i -= 2) {
+        final int first = Math.max(0, posHashListSize - pos.halfMoveClock);
+        for (int i = posHashListSize - 4; i >= first; i -= 2) {
             if (pos.zobristHash() == posHashList[i]) {
                 reps++;
                 if (i >= posHashFirstNew) {
@@ -1271,6 +1826,93 @@ public class Search {
         return (reps >= 2);
     }
 
+    /**
+     * Build the hash set of OTB positions that can be repeated from the root position.
+     * Positions before the last capture or pawn move can not be repeated.
+     */
+    private void initGameRepTable() {
+        final int first = Math.max(0, posHashFirstNew - pos.halfMoveClock);
+        int size = 16;
+        while (size < 2 * (posHashFirstNew - first))
+            size *= 2;
+        if ((gameRepKeys == null) || (gameRepKeys.length < size)) {
+            gameRepKeys = new long[size];
+            gameRepLast = new int[size];
+            gameRepPrev = new int[size];
+        }
+        size = gameRepKeys.length;
+        gameRepMask = size - 1;
+        Arrays.fill(gameRepLast, -1);
+        for (int i = first; i < posHashFirstNew; i++) {
+            final long key = posHashList[i];
+            int idx = (int)key & gameRepMask;
+            while ((gameRepLast[idx] >= 0) && (gameRepKeys[idx] != key))
+                idx = (idx + 1) & gameRepMask;
+            gameRepPrev[idx] = gameRepLast[idx];
+            gameRepKeys[idx] = key;
+            gameRepLast[idx] = i;
+        }
+    }
+
+    /**
+     * Return the posHashList index of the second to last OTB occurrence of a
+     * position, or -1 if the position has not occurred at least twice OTB.
+     */
+    private int gameRepIndex(long key) {
+        int idx = (int)key & gameRepMask;
+        while (gameRepLast[idx] >= 0) {
+            if (gameRepKeys[idx] == key)
+                return gameRepPrev[idx];
+            idx = (idx + 1) & gameRepMask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return true if the current position is a draw by repetition. Gives the same
+     * result as canClaimDrawRep(), but positions played OTB are found using the
+     * hash set instead of a linear scan.
+     */
+    private boolean isRepetition() {
+        final long key = pos.zobristHash();
+        final int first = posHashListSize - pos.halfMoveClock;
+        final int firstNew = Math.max(first, posHashFirstNew);
+        for (int i = posHashListSize - 4; i >= firstNew; i -= 2)
+            if (posHashList[i] == key)
+                return true;
+        return (first < posHashFirstNew) && (gameRepIndex(key) >= first);
+    }
+
+    /**
+     * Return true if the side to move can make a reversible move to a position
+     * that is a draw by repetition. Uses the cuckoo table in Position to find
+     * earlier positions that differ from the current position by one move.
+     */
+    private boolean hasUpcomingRep() {
+        final int first = Math.max(0, posHashListSize - pos.halfMoveClock);
+        final long key = pos.zobristHash();
+        final long occupied = pos.whiteBB | pos.blackBB;
+        for (int i = posHashListSize - 3; i >= first; i -= 2) {
+            final int m = Position.reversibleMove(key ^ posHashList[i]);
+            if (m < 0)
+                continue;
+            final int from = Move.getFrom(m);
+            final int to = Move.getTo(m);
+            if ((BitBoard.squaresBetween[from][to] & occupied) != 0)
+                continue;
+            final int piece = m >> 12;
+            if (Piece.isWhite(piece) != pos.whiteMove)
+                continue;
+            final int p1 = pos.getPiece(from);
+            final int p2 = pos.getPiece(to);
+            if (!((p1 == piece) && (p2 == Piece.EMPTY)) && !((p2 == piece) && (p1 == Piece.EMPTY)))
+                continue;
+            if ((i >= posHashFirstNew) || (gameRepIndex(posHashList[i]) >= first))
+                return true;
+        }
+        return false;
+    }
+
     private void initNodeStats() {
         nodes = qNodes = 0;
         nodesPlyVec = new int[20];
@@ -151,11 +151,10 @@ public class TextIO {
     public static void fixupEPSquare(Position pos) {
         int epSquare = pos.getEpSquare();
         if (epSquare >= 0) {
-            MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
+            MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
             boolean epValid = false;
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 if (m.to == epSquare) {
                     if (pos.getPiece(m.from) == (pos.whiteMove ? Piece.WPAWN : Piece.BPAWN)) {
                         epValid = true;
@@ -272,8 +271,7 @@ public class TextIO {
      *                 Otherwise, use short notation, eg Nf3
      */
     public static String moveToString(Position pos, Move move, boolean longForm) {
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
         return moveToString(pos, move, longForm, moves);
     }
     private static String moveToString(Position pos, Move move, boolean longForm, MoveGen.MoveList moves) {
@@ -316,9 +314,7 @@ public class TextIO {
                     int numSameFile = 0;
                     int numSameRow = 0;
                     for (int mi = 0; mi < moves.size; mi++) {
-                        Move m = moves.m[mi];
-                        if (m == null)
-                            break;
+                        Move m = moves.getMove(mi);
                         if ((pos.getPiece(m.from) == p) && (m.to == move.to)) {
                             numSameTarget++;
                             if (Position.getX(m.from) == x1)
@@ -351,8 +347,7 @@ public class TextIO {
         UndoInfo ui = new UndoInfo();
         if (MoveGen.givesCheck(pos, move)) {
             pos.makeMove(move, ui);
-            MoveGen.MoveList nextMoves = MoveGen.instance.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, nextMoves);
+            MoveGen.MoveList nextMoves = MoveGen.instance.legalMoves(pos);
             if (nextMoves.size == 0) {
                 ret.append('#');
             } else {
@@ -456,18 +451,17 @@ public class TextIO {
         strMove = strMove.replaceAll("=", "");
         if (strMove.length() == 0)
             return null;
-        MoveGen.MoveList moves = MoveGen.instance.pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = MoveGen.instance.legalMoves(pos);
         {
             char lastChar = strMove.charAt(strMove.length() - 1);
             if ((lastChar == '#') || (lastChar == '+')) {
                 MoveGen.MoveList subMoves = new MoveGen.MoveList();
                 int len = 0;
                 for (int mi = 0; mi < moves.size; mi++) {
-                    Move m = moves.m[mi];
+                    Move m = moves.getMove(mi);
                     String str1 = TextIO.moveToString(pos, m, true, moves);
                     if (str1.charAt(str1.length() - 1) == lastChar) {
-                        subMoves.m[len++] = m;
+                        subMoves.m[len++] = moves.m[mi];
                     }
                 }
                 subMoves.size = len;
@@ -479,7 +473,7 @@ public class TextIO {
         for (int i = 0; i < 2; i++) {
             // Search for full match
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 String str1 = normalizeMoveString(TextIO.moveToString(pos, m, true, moves));
                 String str2 = normalizeMoveString(TextIO.moveToString(pos, m, false, moves));
                 if (i == 0) {
@@ -499,7 +493,7 @@ public class TextIO {
         for (int i = 0; i < 2; i++) {
             // Search for unique substring match
             for (int mi = 0; mi < moves.size; mi++) {
-                Move m = moves.m[mi];
+                Move m = moves.getMove(mi);
                 String str1 = normalizeMoveString(TextIO.moveToString(pos, m, true));
                 String str2 = normalizeMoveString(TextIO.moveToString(pos, m, false));
                 boolean match;
@@ -22,53 +22,56 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class TranspositionTable {
+    /**
+     * A decoded view of one hash table entry. The table itself stores each entry
+     * as two longs, the key and a data word with the following layout:
+     *   bit  0-15: move        from + (to<<6) + (promote<<12)
+     *   bit 16-31: score       Score from search
+     *   bit 32-39: depth       Search depth - QS_DEPTH, larger depths are stored as the maximum
+     *   bit 40-45: generation  Increase when OTB position changes, modulo 64
+     *   bit 46-47: type        exact score, lower bound, upper bound, empty
+     *   bit 48-63: evalScore   Score from static evaluation
+     */
     static final public class TTEntry {
         long key;               // Zobrist hash key
-        private short move;     // from + (to<<6) + (promote<<12)
-        private short score;    // Score from search
-        private short depthSlot; // Search depth (bit 0-14) and hash slot (bit 15).
-        byte generation;        // Increase when OTB position changes
-        public byte type;       // exact score, lower bound, upper bound
-        short evalScore;        // Score from static evaluation 
+        long data;              // Packed entry data, see above
 
         static public final int T_EXACT = 0;   // Exact score
         static public final int T_GE = 1;      // True score >= this.score
         static public final int T_LE = 2;      // True score <= this.score
         static public final int T_EMPTY = 3;   // Empty hash slot
-        
+
+        /** Depth of entries stored by the quiescence search. Lower than all full width search depths. */
+        static public final int QS_DEPTH = -1;
+        static final int DEPTH_MASK = 0xff;
+        static final int GEN_MASK = 0x3f;
+
         /** Return true if this object is more valuable than the other, false otherwise. */
         public final boolean betterThan(TTEntry other, int currGen) {
-            if ((generation == currGen) != (other.generation == currGen)) {
-                return generation == currGen;   // Old entries are less valuable
-            }
-            if ((type == T_EXACT) != (other.type == T_EXACT)) {
-                return type == T_EXACT;         // Exact score more valuable than lower/upper bound
-            }
-            if (getDepth() != other.getDepth()) {
-                return getDepth() > other.getDepth();     // Larger depth is more valuable
-            }
-            return false;   // Otherwise, pretty much equally valuable
+            return betterThan(data, other.data, currGen);
         }
 
         /** Return true if entry is good enough to spend extra time trying to avoid overwriting it. */
         public final boolean valuable(int currGen) {
-            if (generation != currGen)
-                return false;
-            return (type == T_EXACT) || (getDepth() > 3 * Search.plyScale);
+            return valuable(data, currGen);
         }
 
-        public final void getMove(Move m) {
-            m.from = move & 63;
-            m.to = (move >> 6) & 63;
-            m.promoteTo = (move >> 12) & 15;
+        /** Get the move in int encoded form, see Move.encode(). */
+        public final int getMove() {
+            return (int)data & 0xffff;
         }
-        public final void setMove(Move move) {
-            this.move = (short)(move.from + (move.to << 6) + (move.promoteTo << 12));
+
+        public final void getMove(Move m) {
+            m.decode((int)data & 0xffff);
         }
-        
+
         /** Get the score from the hash entry and convert from "mate in x" to "mate at ply". */
         public final int getScore(int ply) {
-            int sc = score;
+            return getScore(data, ply);
+        }
+
+        static int getScore(long data, int ply) {
+            int sc = (short)(data >>> 16);
             if (sc > Search.MATE0 - 1000) {
                 sc -= ply;
             } else if (sc < -(Search.MATE0 - 1000)) {
@@ -76,125 +79,424 @@ public class TranspositionTable {
             }
             return sc;
         }
-        
-        /** Convert score from "mate at ply" to "mate in x" and store in hash entry. */
-        public final void setScore(int score, int ply) {
+
+        /** Get depth from the hash entry. */
+        public final int getDepth() {
+            return getDepth(data);
+        }
+
+        public final int getType() {
+            return getType(data);
+        }
+
+        public final int getEvalScore() {
+            return (short)(data >>> 48);
+        }
+
+        final int getGeneration() {
+            return getGeneration(data);
+        }
+
+        static int getDepth(long data) {
+            return ((int)(data >>> 32) & DEPTH_MASK) + QS_DEPTH;
+        }
+
+        static int getGeneration(long data) {
+            return (int)(data >>> 40) & GEN_MASK;
+        }
+
+        static int getType(long data) {
+            return (int)(data >>> 46) & 3;
+        }
+
+        static boolean betterThan(long data, long otherData, int currGen) {
+            boolean thisCurr = getGeneration(data) == currGen;
+            if (thisCurr != (getGeneration(otherData) == currGen)) {
+                return thisCurr;                // Old entries are less valuable
+            }
+            int type = getType(data);
+            if ((type == T_EXACT) != (getType(otherData) == T_EXACT)) {
+                return type == T_EXACT;         // Exact score more valuable than lower/upper bound
+            }
+            int depth = getDepth(data);
+            int otherDepth = getDepth(otherData);
+            if (depth != otherDepth) {
+                return depth > otherDepth;      // Larger depth is more valuable
+            }
+            return false;   // Otherwise, pretty much equally valuable
+        }
+
+        static boolean valuable(long data, int currGen) {
+            if (getGeneration(data) != currGen)
+                return false;
+            return (getType(data) == T_EXACT) || (getDepth(data) > 3 * Search.plyScale);
+        }
+
+        static long setGeneration(long data, int generation) {
+            return (data & ~((long)GEN_MASK << 40)) | ((long)generation << 40);
+        }
+
+        /** Pack entry data. The score is converted from "mate at ply" to "mate in x". */
+        static long makeData(int move, int score, int ply, int depth, int generation,
+                             int type, int evalScore) {
             if (score > Search.MATE0 - 1000) {
                 score += ply;
             } else if (score < -(Search.MATE0 - 1000)) {
                 score -= ply;
             }
-            this.score = (short)score;
+            return (move & 0xffffL) |
+                   (((long)score & 0xffff) << 16) |
+                   ((long)Math.min(depth - QS_DEPTH, DEPTH_MASK) << 32) |
+                   ((long)generation << 40) |
+                   ((long)type << 46) |
+                   (((long)evalScore & 0xffff) << 48);
         }
+    }
 
-        /** Get depth from the hash entry. */
-        public final int getDepth() {
-            return depthSlot & 0x7fff;
+    private static final long EMPTY_DATA = (long)TTEntry.T_EMPTY << 46;
+
+    /**
+     * Two longs per entry, key^data followed by data. Storing the key xor:ed with the data
+     * makes it possible to share the table between search threads without locking. An entry
+     * torn by concurrent writes (or by non-atomic long writes) fails the key check in probe
+     * and is treated as a miss.
+     */
+    private long[] table;
+    private byte generation;
+
+    /**
+     * Number of entries in a bucket. 1 means the classic two-slot cuckoo scheme, where an
+     * entry lives in one of two slots given by independent hash functions. Larger values
+     * mean a single hash function selects a bucket of consecutive entries, so a probe touches
+     * only one memory region. 4 entries of 16 bytes fill a 64 byte cache line, although the
+     * VM does not guarantee that the array data is cache line aligned.
+     */
+    private final int bucketSize;
+
+    /**
+     * Transposition table usage statistics. The table does not own any counters. Each search
+     * thread passes its own Stats object to probe and insert, so that threads sharing the
+     * table do not write to a common memory location for every probe.
+     */
+    public static final class Stats {
+        public long probes;     // Number of probe calls
+        public long hits;       // Number of probes that found an entry
+        public long cutoffs;    // Number of hits that ended the search of a node
+        public long collisions; // Misses where all slots the position can use held other positions
+        public long overwrites; // Inserts that replaced a current generation entry for another position
+        public int hashFull;    // Permille of sampled entries used by the current generation
+
+        /** Add the counters in "other" to this object. hashFull is not changed. */
+        public final void add(Stats other) {
+            probes += other.probes;
+            hits += other.hits;
+            cutoffs += other.cutoffs;
+            collisions += other.collisions;
+            overwrites += other.overwrites;
         }
 
-        /** Set depth. */
-        public final void setDepth(int d) {
-            depthSlot &= 0x8000;
-            depthSlot |= ((short)d) & 0x7fff;
+        /** Set all counters to zero. */
+        public final void clear() {
+            probes = hits = cutoffs = collisions = overwrites = 0;
+            hashFull = 0;
         }
 
-        final int getHashSlot() {
-            return depthSlot >>> 15;
+        /** Return the percentage of probes that found an entry. */
+        public final double hitRate() {
+            return (probes > 0) ? hits * 100.0 / probes : 0;
         }
 
-        public final void setHashSlot(int s) {
-            depthSlot &= 0x7fff;
-            depthSlot |= (s << 15);
+        /** Return the percentage of probes that ended the search of a node. */
+        public final double cutoffRate() {
+            return (probes > 0) ? cutoffs * 100.0 / probes : 0;
         }
     }
-    private TTEntry[] table;
-    private TTEntry emptySlot;
-    private byte generation;
+
+    /** Number of bytes used by one table entry. */
+    public static final int BYTES_PER_ENTRY = 16;
+
+    /** Largest supported table size, 2^29 entries (8GB). */
+    public static final int MAX_LOG2_SIZE = 29;
+
+    /** Smallest supported table size. */
+    public static final int MIN_LOG2_SIZE = 3;
 
     /** Constructor. Creates an empty transposition table with numEntries slots. */
     public TranspositionTable(int log2Size) {
+        this(log2Size, 1);
+    }
+
+    /**
+     * Constructor. Creates an empty transposition table with 2^log2Size slots,
+     * grouped in buckets of bucketSize entries. bucketSize must be 1, 2, 4 or 8.
+     */
+    public TranspositionTable(int log2Size, int bucketSize) {
+        if ((bucketSize != 1) && (bucketSize != 2) && (bucketSize != 4) && (bucketSize != 8))
+            throw new IllegalArgumentException("bucketSize: " + bucketSize);
+        log2Size = Math.max(MIN_LOG2_SIZE, Math.min(log2Size, MAX_LOG2_SIZE));
         final int numEntries = (1 << log2Size);
-        table = new TTEntry[numEntries];
-        for (int i = 0; i < numEntries; i++) {
-            TTEntry ent = new TTEntry();
-            ent.key = 0;
-            ent.depthSlot = 0;
-            ent.type = TTEntry.T_EMPTY;
-            table[i] = ent;
-        }
-        emptySlot = new TTEntry();
-        emptySlot.type = TTEntry.T_EMPTY;
+        table = new long[numEntries * 2];
+        this.bucketSize = bucketSize;
+        clear();
         generation = 0;
     }
 
+    public final int getBucketSize() {
+        return bucketSize;
+    }
+
+    /** Return the largest table log2 size that fits in "bytes" bytes of memory. */
+    public static int log2SizeForMemory(long bytes) {
+        long numEntries = bytes / BYTES_PER_ENTRY;
+        int log2Size = MIN_LOG2_SIZE;
+        while ((log2Size < MAX_LOG2_SIZE) && ((1L << (log2Size + 1)) <= numEntries))
+            log2Size++;
+        return log2Size;
+    }
+
+    /** Return "fraction" of the maximum heap size, in bytes. */
+    public static long memoryBudget(double fraction) {
+        return (long)(Runtime.getRuntime().maxMemory() * fraction);
+    }
+
+    /**
+     * Return "fraction" of the maximum heap size, in bytes, minus the memory used by the
+     * history tables of numThreads search threads, which is taken from the same budget.
+     */
+    public static long memoryBudget(double fraction, int numThreads) {
+        return Math.max(0, memoryBudget(fraction) - numThreads * History.MEMORY_SIZE);
+    }
+
+    /**
+     * Change the table size. Valid current generation entries are moved to the new table,
+     * older entries are discarded. If the new table is smaller, the least valuable entries
+     * are dropped when slots collide. Must not be called while a search uses the table.
+     */
+    public final void resize(int log2Size) {
+        log2Size = Math.max(MIN_LOG2_SIZE, Math.min(log2Size, MAX_LOG2_SIZE));
+        final int numEntries = (1 << log2Size);
+        if (numEntries == getNumEntries())
+            return;
+        final long[] newTable = new long[numEntries * 2];
+        final long[] oldTable = table;
+        final int currGen = generation & TTEntry.GEN_MASK;
+        table = newTable;
+        clear();
+        for (int i = 0; i < oldTable.length; i += 2) {
+            long data = oldTable[i + 1];
+            if ((TTEntry.getType(data) == TTEntry.T_EMPTY) || (TTEntry.getGeneration(data) != currGen))
+                continue;
+            storeRaw(oldTable[i] ^ data, data, currGen);
+        }
+    }
+
+    /** Store a packed entry in its least valuable slot, if the entry there is not better. */
+    private void storeRaw(long key, long data, int currGen) {
+        int idx;
+        if (bucketSize == 1) {
+            int idx0 = h0(key);
+            int idx1 = h1(key);
+            idx = TTEntry.betterThan(table[idx1 * 2 + 1], table[idx0 * 2 + 1], currGen) ? idx0 : idx1;
+        } else {
+            idx = h0(key) & ~(bucketSize - 1);
+            final int end = idx + bucketSize;
+            for (int i = idx + 1; i < end; i++)
+                if (TTEntry.betterThan(table[idx * 2 + 1], table[i * 2 + 1], currGen))
+                    idx = i;
+        }
+        if (!TTEntry.betterThan(table[idx * 2 + 1], data, currGen)) {
+            table[idx * 2] = key ^ data;
+            table[idx * 2 + 1] = data;
+        }
+    }
+
     public final void insert(long key, Move sm, int type, int ply, int depth, int evalScore) {
+        insert(key, sm.encode(), sm.score, type, ply, depth, evalScore);
+    }
+
+    /**
+     * Insert an entry in the table.
+     * @param move  Best move in int encoded form, see Move.encode(). 0 if there is no move.
+     * @param score Search score at this ply.
+     */
+    public final void insert(long key, int move, int score, int type, int ply, int depth, int evalScore) {
+        insert(key, move, score, type, ply, depth, evalScore, null);
+    }
+
+    /** Insert an entry in the table and count replaced entries in "stats", unless it is null. */
+    public final void insert(long key, Move sm, int type, int ply, int depth, int evalScore, Stats stats) {
+        insert(key, sm.encode(), sm.score, type, ply, depth, evalScore, stats);
+    }
+
+    public final void insert(long key, int move, int score, int type, int ply, int depth, int evalScore,
+                             Stats stats) {
         if (depth < 0) depth = 0;
+        insertDepth(key, move, score, type, ply, depth, evalScore, stats);
+    }
+
+    /**
+     * Insert an entry for a quiescence search node. The entry gets depth QS_DEPTH
+     * and does not replace a full width search entry for the same position.
+     */
+    public final void insertQS(long key, int move, int score, int type, int ply, Stats stats) {
+        insertDepth(key, move, score, type, ply, TTEntry.QS_DEPTH, Search.UNKNOWN_SCORE, stats);
+    }
+
+    private void insertDepth(long key, int move, int score, int type, int ply, int depth, int evalScore,
+                             Stats stats) {
+        if (bucketSize == 1)
+            insertCuckoo(key, move, score, type, ply, depth, evalScore, stats);
+        else
+            insertBucket(key, move, score, type, ply, depth, evalScore, stats);
+    }
+
+    private void insertCuckoo(long key, int move, int score, int type, int ply, int depth, int evalScore,
+                              Stats stats) {
+        final long[] table = this.table;
+        final int currGen = generation & TTEntry.GEN_MASK;
         int idx0 = h0(key);
         int idx1 = h1(key);
-        TTEntry ent = table[idx0];
-        byte hashSlot = 0;
-        if (ent.key != key) {
-            ent = table[idx1];
-            hashSlot = 1;
-        }
-        if (ent.key != key) {
-            if (table[idx1].betterThan(table[idx0], generation)) {
-                ent = table[idx0];
-                hashSlot = 0;
+        long data0 = table[idx0 * 2 + 1];
+        long data1 = table[idx1 * 2 + 1];
+        int idx = idx0;
+        long entData = data0;
+        boolean sameKey = (table[idx0 * 2] ^ data0) == key;
+        if (!sameKey) {
+            idx = idx1;
+            entData = data1;
+            sameKey = (table[idx1 * 2] ^ data1) == key;
+        }
+        if (!sameKey) {
+            if (TTEntry.betterThan(data1, data0, currGen)) {
+                idx = idx0;
+                entData = data0;
             }
-            if (ent.valuable(generation)) {
-                int altEntIdx = (ent.getHashSlot() == 0) ? h1(ent.key) : h0(ent.key);
-                if (ent.betterThan(table[altEntIdx], generation)) {
-                    TTEntry altEnt = table[altEntIdx];
-                    altEnt.key = ent.key;
-                    altEnt.move = ent.move;
-                    altEnt.score = ent.score;
-                    altEnt.depthSlot = ent.depthSlot;
-                    altEnt.generation = ent.generation;
-                    altEnt.type = ent.type;
-                    altEnt.setHashSlot(1 - ent.getHashSlot());
-                    altEnt.evalScore = ent.evalScore;
+            if (TTEntry.valuable(entData, currGen)) {
+                long entKey = table[idx * 2] ^ entData;
+                int altIdx = (idx == h0(entKey)) ? h1(entKey) : h0(entKey);
+                if (TTEntry.betterThan(entData, table[altIdx * 2 + 1], currGen)) {
+                    table[altIdx * 2] = entKey ^ entData;
+                    table[altIdx * 2 + 1] = entData;
                 }
             }
         }
+        store(idx, entData, sameKey, key, move, score, type, ply, depth, evalScore, currGen, stats);
+    }
+
+    private void insertBucket(long key, int move, int score, int type, int ply, int depth, int evalScore,
+                              Stats stats) {
+        final long[] table = this.table;
+        final int currGen = generation & TTEntry.GEN_MASK;
+        final int first = h0(key) & ~(bucketSize - 1);
+        final int end = first + bucketSize;
+        int idx = first;
+        long entData = table[first * 2 + 1];
+        boolean sameKey = false;
+        for (int i = first; i < end; i++) {
+            long data = table[i * 2 + 1];
+            if ((table[i * 2] ^ data) == key) {
+                idx = i;
+                entData = data;
+                sameKey = true;
+                break;
+            }
+            if (TTEntry.betterThan(entData, data, currGen)) {
+                idx = i;
+                entData = data;
+            }
+        }
+        store(idx, entData, sameKey, key, move, score, type, ply, depth, evalScore, currGen, stats);
+    }
+
+    /** Store an entry in slot idx, unless the entry already there for the same key is better. */
+    private void store(int idx, long entData, boolean sameKey, long key, int move, int score,
+                       int type, int ply, int depth, int evalScore, int currGen, Stats stats) {
         boolean doStore = true;
-        if ((ent.key == key) && (ent.getDepth() > depth) && (ent.type == type)) {
+        if (sameKey && (depth == TTEntry.QS_DEPTH) && (TTEntry.getDepth(entData) > depth)) {
+            doStore = false;
+        } else if (sameKey && (TTEntry.getDepth(entData) > depth) && (TTEntry.getType(entData) == type)) {
             if (type == TTEntry.T_EXACT) {
                 doStore = false;
-            } else if ((type == TTEntry.T_GE) && (sm.score <= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_GE) && (score <= TTEntry.getScore(entData, ply))) {
                 doStore = false;
-            } else if ((type == TTEntry.T_LE) && (sm.score >= ent.getScore(ply))) {
+            } else if ((type == TTEntry.T_LE) && (score >= TTEntry.getScore(entData, ply))) {
                 doStore = false;
             }
         }
         if (doStore) {
-            if ((ent.key != key) || (sm.from != sm.to))
-                ent.setMove(sm);
-            ent.key = key;
-            ent.setScore(sm.score, ply);
-            ent.setDepth(depth);
-            ent.generation = generation;
-            ent.type = (byte)type;
-            ent.setHashSlot(hashSlot);
-            ent.evalScore = (short)evalScore;
+            if ((stats != null) && !sameKey && (TTEntry.getType(entData) != TTEntry.T_EMPTY) &&
+                    (TTEntry.getGeneration(entData) == currGen))
+                stats.overwrites++;
+            long data = TTEntry.makeData(move, score, ply, depth, currGen, type, evalScore);
+            if (sameKey && (Move.getFrom(move) == Move.getTo(move)))
+                data = (data & ~0xffffL) | (entData & 0xffffL);
+            table[idx * 2] = key ^ data;
+            table[idx * 2 + 1] = data;
         }
     }
 
     /** Retrieve an entry from the hash table corresponding to "pos". */
     public final TTEntry probe(long key) {
-        int idx0 = h0(key);
-        TTEntry ent = table[idx0];
-        if (ent.key == key) {
-            ent.generation = generation;
-            return ent;
+        TTEntry ent = new TTEntry();
+        probe(key, ent);
+        return ent;
+    }
+
+    /**
+     * Retrieve the entry corresponding to "key" from the hash table without allocating.
+     * If there is no such entry, result gets type T_EMPTY.
+     */
+    public final void probe(long key, TTEntry result) {
+        probe(key, result, null);
+    }
+
+    /** Like probe(key, result), but also count the probe in "stats", unless it is null. */
+    public final void probe(long key, TTEntry result, Stats stats) {
+        final long[] table = this.table;
+        if (stats != null)
+            stats.probes++;
+        int idx = h0(key);
+        long data = table[idx * 2 + 1];
+        if (bucketSize == 1) {
+            if ((table[idx * 2] ^ data) != key) {
+                idx = h1(key);
+                data = table[idx * 2 + 1];
+                if ((table[idx * 2] ^ data) != key) {
+                    if ((stats != null) && (data != EMPTY_DATA) && (table[h0(key) * 2 + 1] != EMPTY_DATA))
+                        stats.collisions++;
+                    result.key = 0;
+                    result.data = EMPTY_DATA;
+                    return;
+                }
+            }
+        } else {
+            idx &= ~(bucketSize - 1);
+            final int end = idx + bucketSize;
+            boolean full = true;
+            while (true) {
+                data = table[idx * 2 + 1];
+                if ((table[idx * 2] ^ data) == key)
+                    break;
+                full &= data != EMPTY_DATA;
+                if (++idx == end) {
+                    if (full && (stats != null))
+                        stats.collisions++;
+                    result.key = 0;
+                    result.data = EMPTY_DATA;
+                    return;
+                }
+            }
         }
-        int idx1 = h1(key);
-        ent = table[idx1];
-        if (ent.key == key) {
-            ent.generation = generation;
-            return ent;
+        if (stats != null)
+            stats.hits++;
+        final int currGen = generation & TTEntry.GEN_MASK;
+        if (TTEntry.getGeneration(data) != currGen) {
+            data = TTEntry.setGeneration(data, currGen);
+            table[idx * 2] = key ^ data;
+            table[idx * 2 + 1] = data;
         }
-        return emptySlot;
+        result.key = key;
+        result.data = data;
     }
 
     /**
@@ -205,10 +507,33 @@ public class TranspositionTable {
         generation++;
     }
 
+    /**
+     * Return the permille of entries used by the current generation, estimated from
+     * at most 1000 entries. The samples are groups of 8 consecutive entries, which
+     * are whole buckets, spread evenly over the table.
+     */
+    public final int hashFull() {
+        final int numEntries = getNumEntries();
+        final int n = Math.min(1000, numEntries) & ~7;
+        final int numGroups = n / 8;
+        final int currGen = generation & TTEntry.GEN_MASK;
+        int used = 0;
+        for (int g = 0; g < numGroups; g++) {
+            int first = (int)((long)g * numEntries / numGroups) & ~7;
+            for (int i = first; i < first + 8; i++) {
+                long data = table[i * 2 + 1];
+                if ((TTEntry.getType(data) != TTEntry.T_EMPTY) && (TTEntry.getGeneration(data) == currGen))
+                    used++;
+            }
+        }
+        return used * 1000 / n;
+    }
+
     /** Clear the transposition table. */
     public final void clear() {
-        for (TTEntry ent : table) {
-            ent.type = TTEntry.T_EMPTY;
+        for (int i = 0; i < table.length; i += 2) {
+            table[i] = EMPTY_DATA;
+            table[i + 1] = EMPTY_DATA;
         }
     }
 
@@ -222,6 +547,7 @@ public class TranspositionTable {
         UndoInfo ui = new UndoInfo();
         List<Long> hashHistory = new ArrayList<>();
         MoveGen moveGen = new MoveGen();
+        TTEntry ent = new TTEntry();
         while (true) {
             ret.add(m);
             pos.makeMove(m, ui);
@@ -229,20 +555,14 @@ public class TranspositionTable {
                 break;
             }
             hashHistory.add(pos.zobristHash());
-            TTEntry ent = probe(pos.historyHash());
-            if (ent.type == TTEntry.T_EMPTY) {
+            probe(pos.historyHash(), ent);
+            if (ent.getType() == TTEntry.T_EMPTY) {
                 break;
             }
             m = new Move(0,0,0);
             ent.getMove(m);
-            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
-            boolean contains = false;
-            for (int mi = 0; mi < moves.size; mi++)
-                if (moves.m[mi].equals(m)) {
-                    contains = true;
-                    break;
-                }
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            boolean contains = moves.indexOf(m) >= 0;
             if  (!contains)
                 break;
         }
@@ -254,28 +574,23 @@ public class TranspositionTable {
         StringBuilder ret = new StringBuilder(100);
         pos = new Position(pos);    // To avoid modifying the input parameter
         boolean first = true;
-        TTEntry ent = probe(pos.historyHash());
+        TTEntry ent = new TTEntry();
+        probe(pos.historyHash(), ent);
         UndoInfo ui = new UndoInfo();
         ArrayList<Long> hashHistory = new ArrayList<>();
         boolean repetition = false;
-        MoveGen moveGen = MoveGen.instance;
-        while (ent.type != TTEntry.T_EMPTY) {
+        MoveGen moveGen = new MoveGen();
+        while (ent.getType() != TTEntry.T_EMPTY) {
             String type = "";
-            if (ent.type == TTEntry.T_LE) {
+            if (ent.getType() == TTEntry.T_LE) {
                 type = "<";
-            } else if (ent.type == TTEntry.T_GE) {
+            } else if (ent.getType() == TTEntry.T_GE) {
                 type = ">";
             }
             Move m = new Move(0,0,0);
             ent.getMove(m);
-            MoveGen.MoveList moves = moveGen.pseudoLegalMoves(pos);
-            MoveGen.removeIllegal(pos, moves);
-            boolean contains = false;
-            for (int mi = 0; mi < moves.size; mi++)
-                if (moves.m[mi].equals(m)) {
-                    contains = true;
-                    break;
-                }
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            boolean contains = moves.indexOf(m) >= 0;
             if  (!contains)
                 break;
             String moveStr = TextIO.moveToString(pos, m, false);
@@ -291,7 +606,7 @@ public class TranspositionTable {
                 repetition = true;
             }
             hashHistory.add(pos.zobristHash());
-            ent = probe(pos.historyHash());
+            probe(pos.historyHash(), ent);
             first = false;
         }
         return ret.toString();
@@ -301,38 +616,51 @@ public class TranspositionTable {
     public final void printStats() {
         int unused = 0;
         int thisGen = 0;
-        List<Integer> depHist = new ArrayList<>();
+        List<Integer> depHist = new ArrayList<>(); // Index is depth - QS_DEPTH
         final int maxDepth = 20*8;
-        for (int i = 0; i < maxDepth; i++) {
+        for (int i = TTEntry.QS_DEPTH; i < maxDepth; i++) {
             depHist.add(0);
         }
-        for (TTEntry ent : table) {
-            if (ent.type == TTEntry.T_EMPTY) {
+        final int numEntries = getNumEntries();
+        for (int i = 0; i < numEntries; i++) {
+            long data = table[i * 2 + 1];
+            if (TTEntry.getType(data) == TTEntry.T_EMPTY) {
                 unused++;
             } else {
-                if (ent.generation == generation) {
+                if (TTEntry.getGeneration(data) == (generation & TTEntry.GEN_MASK)) {
                     thisGen++;
                 }
-                if (ent.getDepth() < maxDepth) {
-                    depHist.set(ent.getDepth(), depHist.get(ent.getDepth()) + 1);
+                int depth = TTEntry.getDepth(data);
+                if (depth < maxDepth) {
+                    int idx = depth - TTEntry.QS_DEPTH;
+                    depHist.set(idx, depHist.get(idx) + 1);
                 }
             }
         }
-        double w = 100.0 / table.length;
+        double w = 100.0 / numEntries;
         System.out.printf("Hash stats: size:%d unused:%d (%.2f%%) thisGen:%d (%.2f%%)\n",
-                          table.length, unused, unused*w, thisGen, thisGen*w);
-        for (int i = 0; i < maxDepth; i++) {
-            int c = depHist.get(i);
-            if (c > 0)
-                System.out.printf("%3d %8d (%6.2f%%)\n", i, c, c*w);
+                          numEntries, unused, unused*w, thisGen, thisGen*w);
+        for (int depth = TTEntry.QS_DEPTH; depth < maxDepth; depth++) {
+            int c = depHist.get(depth - TTEntry.QS_DEPTH);
+            if (c > 0) {
+                if (depth == TTEntry.QS_DEPTH)
+                    System.out.printf(" qs %8d (%6.2f%%)\n", c, c*w);
+                else
+                    System.out.printf("%3d %8d (%6.2f%%)\n", depth, c, c*w);
+            }
         }
     }
     
+    /** Return the number of entries in the table. */
+    public final int getNumEntries() {
+        return table.length / 2;
+    }
+
     private int h0(long key) {
-        return (int)(key & (table.length - 1));
+        return (int)(key & (getNumEntries() - 1));
     }
-    
+
     private int h1(long key) {
-        return (int)((key >> 32) & (table.length - 1));
+        return (int)((key >> 32) & (getNumEntries() - 1));
     }
 }
@@ -29,6 +29,7 @@ import cuckoochess.chess.Player;
 import cuckoochess.chess.Position;
 import cuckoochess.chess.Search;
 import cuckoochess.chess.TextIO;
+import cuckoochess.chess.TranspositionTable;
 import cuckoochess.chess.UndoInfo;
 import cuckoochess.chess.Game.GameState;
 
@@ -47,6 +48,8 @@ public class ChessController {
     private GUIInterface gui;
     public boolean humanIsWhite;
     private Thread computerThread;
+    private Thread ponderThread;
+    private boolean ponderMode;
     private int threadStack;       // Thread stack size, or zero to use OS default
 
     // Search statistics
@@ -59,6 +62,8 @@ public class ChessController {
         long currNodes = 0;
         int currNps = 0;
         int currTime = 0;
+        int currHashFull = 0;
+        double currTTHitRate = 0;
 
         int pvDepth = 0;
         int pvScore = 0;
@@ -84,6 +89,7 @@ public class ChessController {
             buf.append(String.format(Locale.US, "%n"));
             buf.append(String.format(Locale.US, "d:%d %d:%s t:%.2f n:%d nps:%d", currDepth,
                     currMoveNr, currMove, currTime / 1000.0, currNodes, currNps));
+            buf.append(String.format(Locale.US, " h:%d hr:%.0f%%", currHashFull, currTTHitRate));
             final String newPV = buf.toString();
             gui.runOnUIThread(() -> thinkingPV = newPV);
         }
@@ -127,6 +133,11 @@ public class ChessController {
             currTime = time;
             setSearchInfo();
         }
+
+        public void notifyTTStats(TranspositionTable.Stats stats) {
+            currHashFull = stats.hashFull;
+            currTTHitRate = stats.hitRate();
+        }
     }
     private SearchListener listener;
 
@@ -141,6 +152,13 @@ public class ChessController {
         threadStack = size;
     }
 
+    /** Enable/disable thinking on the opponent's time. */
+    public void setPonderMode(boolean ponder) {
+        ponderMode = ponder;
+        if (!ponder)
+            stopPonder();
+    }
+
     public final void newGame(boolean humanIsWhite, int ttLogSize, boolean verbose, int strength) {
         stopComputerThinking();
         this.humanIsWhite = humanIsWhite;
@@ -352,6 +370,7 @@ public class ChessController {
     }
 
     public final void takeBackMove() {
+        stopPonder();
         if (humansTurn()) {
             if (game.getLastMove() != null) {
                 game.processString("undo");
@@ -425,11 +444,10 @@ public class ChessController {
      */
     private boolean doMove(Move move) {
         Position pos = game.pos;
-        MoveGen.MoveList moves = new MoveGen().pseudoLegalMoves(pos);
-        MoveGen.removeIllegal(pos, moves);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
         int promoteTo = move.promoteTo;
         for (int mi = 0; mi < moves.size; mi++) {
-            Move m = moves.m[mi];
+            Move m = moves.getMove(mi);
             if ((m.from == move.from) && (m.to == move.to)) {
                 if ((m.promoteTo != Piece.EMPTY) && (promoteTo == Piece.EMPTY)) {
                     promoteMove = m;
@@ -465,6 +483,8 @@ public class ChessController {
     private void startComputerThinking() {
         if (game.pos.whiteMove != humanIsWhite) {
             if (computerThread == null) {
+                // A running ponder search is taken over or stopped by getCommand
+                ponderThread = null;
                 Runnable run = () -> {
                     computerPlayer.timeLimit(gui.timeLimit(), gui.timeLimit(), false);
                     final String cmd = computerPlayer.getCommand(new Position(game.pos),
@@ -474,6 +494,7 @@ public class ChessController {
                         thinkingPV = "";
                         updateGUI();
                         stopComputerThinking();
+                        startPonder();
                     });
                 };
                 if (threadStack > 0) {
@@ -489,7 +510,37 @@ public class ChessController {
         }
     }
 
+    /** Start searching the expected reply while the human is thinking, if enabled. */
+    private void startPonder() {
+        if (!ponderMode || (ponderThread != null) || !humansTurn() ||
+                (game.getGameState() != GameState.ALIVE))
+            return;
+        final Position pos = new Position(game.pos);
+        final List<Position> history = game.getHistory();
+        Runnable run = () -> computerPlayer.ponder(pos, history);
+        if (threadStack > 0) {
+            ThreadGroup tg = new ThreadGroup("ponder");
+            ponderThread = new Thread(tg, run, "ponder", threadStack);
+        } else {
+            ponderThread = new Thread(run);
+        }
+        ponderThread.start();
+    }
+
+    private void stopPonder() {
+        if (ponderThread != null) {
+            computerPlayer.stopPonder();
+            try {
+                ponderThread.join();
+            } catch (InterruptedException ex) {
+                System.out.printf("Could not stop thread%n");
+            }
+            ponderThread = null;
+        }
+    }
+
     public synchronized void stopComputerThinking() {
+        stopPonder();
         if (computerThread != null) {
             computerPlayer.timeLimit(0, 0, false);
             try {
@@ -0,0 +1,200 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package cuckoochess.chess;
+
+import java.util.Locale;
+
+/**
+ * Engine micro benchmarks. Not used by the program itself, run from the
+ * command line when measuring the effect of engine changes. Kept in the
+ * unit test source set, so it is not included in the app.
+ */
+public final class Benchmark {
+    private static final String[] searchFENs = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "2r3k1/pp3ppp/4p3/3pP3/1P1P4/P1q2N2/5PPP/2RQ2K1 b - - 0 1",
+        "8/8/4k3/3p4/3P4/4K3/8/8 w - - 0 1",
+    };
+
+    private Benchmark() {
+    }
+
+    public static void main(String[] args) throws ChessParseError {
+        String cmd = (args.length > 0) ? args[0] : "all";
+        int depth = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int ttLogSize = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        if (cmd.equals("all") || cmd.equals("search"))
+            search(depth, ttLogSize);
+        if (cmd.equals("all") || cmd.equals("layout"))
+            ttLayout(depth);
+        if (cmd.equals("all") || cmd.equals("smp"))
+            timeToDepth(depth, ttLogSize);
+        if (cmd.equals("all") || cmd.equals("time"))
+            timeControl(ttLogSize);
+    }
+
+    /** Fixed depth search of a set of test positions. */
+    private static void search(int depth, int ttLogSize) throws ChessParseError {
+        TranspositionTable tt = new TranspositionTable(ttLogSize);
+        long t0 = System.currentTimeMillis();
+        long totNodes = searchAll(tt, depth, 1, true);
+        long t = Math.max(System.currentTimeMillis() - t0, 1);
+        System.out.printf(Locale.US, "search depth:%d nodes:%d time:%.3f nps:%d%n",
+                          depth, totNodes, t * 1e-3, totNodes * 1000 / t);
+    }
+
+    /** Compare hit rate and speed of different transposition table layouts and sizes. */
+    private static void ttLayout(int depth) throws ChessParseError {
+        final int[] bucketSizes = { 1, 2, 4, 8 };
+        searchAll(new TranspositionTable(16), depth, 1, false); // Warm up JIT compiler
+        for (int logSize = 12; logSize <= 20; logSize += 2) {
+            for (int bucketSize : bucketSizes) {
+                TranspositionTable tt = new TranspositionTable(logSize, bucketSize);
+                TranspositionTable.Stats stats = new TranspositionTable.Stats();
+                long t0 = System.currentTimeMillis();
+                long totNodes = searchAll(tt, depth, 1, false, stats);
+                long t = Math.max(System.currentTimeMillis() - t0, 1);
+                System.out.printf(Locale.US, "layout size:2^%d bucket:%d hits:%.2f%% cutoffs:%.2f%% " +
+                                  "collisions:%d overwrites:%d nodes:%d nps:%d%n",
+                                  logSize, bucketSize, stats.hitRate(), stats.cutoffRate(),
+                                  stats.collisions, stats.overwrites, totNodes, totNodes * 1000 / t);
+            }
+        }
+    }
+
+    /** Measure time to reach a fixed depth using 1, 2, 4 and 8 search threads. */
+    private static void timeToDepth(int depth, int ttLogSize) throws ChessParseError {
+        TranspositionTable tt = new TranspositionTable(ttLogSize);
+        searchAll(tt, depth, 1, false); // Warm up JIT compiler
+        long t1 = 0;
+        for (int numThreads = 1; numThreads <= 8; numThreads *= 2) {
+            long t0 = System.currentTimeMillis();
+            long totNodes = searchAll(tt, depth, numThreads, false);
+            long t = Math.max(System.currentTimeMillis() - t0, 1);
+            if (numThreads == 1)
+                t1 = t;
+            System.out.printf(Locale.US, "smp threads:%d depth:%d time:%.3f speedup:%.2f nodes:%d nps:%d%n",
+                              numThreads, depth, t * 1e-3, t1 / (double)t, totNodes, totNodes * 1000 / t);
+        }
+    }
+
+    /**
+     * Measure how much of the allotted time searches use, and how long it takes
+     * for a search to stop after being told to stop.
+     */
+    private static void timeControl(int ttLogSize) throws ChessParseError {
+        TranspositionTable tt = new TranspositionTable(ttLogSize);
+        searchAll(tt, 7, 1, false); // Warm up JIT compiler
+        final int[][] limits = { { 100, 100 }, { 500, 500 }, { 200, 1000 } };
+        for (int[] limit : limits) {
+            long totTime = 0;
+            long maxTime = 0;
+            for (String fen : searchFENs) {
+                Position pos = TextIO.readFEN(fen);
+                tt.clear();
+                Search sc = newSearch(pos, tt);
+                MoveGen.MoveList moves = legalMoves(pos);
+                sc.scoreMoveList(moves, 0);
+                sc.timeLimit(limit[0], limit[1]);
+                long t0 = System.currentTimeMillis();
+                sc.iterativeDeepening(moves, -1, -1, false);
+                long t = System.currentTimeMillis() - t0;
+                totTime += t;
+                maxTime = Math.max(maxTime, t);
+            }
+            System.out.printf(Locale.US, "time limit:%d-%d avg:%d max:%d%n", limit[0], limit[1],
+                              totTime / searchFENs.length, maxTime);
+        }
+        long totLatency = 0;
+        long maxLatency = 0;
+        int n = 0;
+        for (int i = 0; i < 5; i++) {
+            for (String fen : searchFENs) {
+                Position pos = TextIO.readFEN(fen);
+                tt.clear();
+                final Search sc = newSearch(pos, tt);
+                final MoveGen.MoveList moves = legalMoves(pos);
+                sc.scoreMoveList(moves, 0);
+                sc.timeLimit(-1, -1);
+                Thread th = new Thread(new Runnable() {
+                    public void run() {
+                        sc.iterativeDeepening(moves, -1, -1, false);
+                    }
+                });
+                th.start();
+                try {
+                    Thread.sleep(100 + 37 * i);
+                    long t0 = System.nanoTime();
+                    sc.timeLimit(0, 0);
+                    th.join();
+                    long latency = (System.nanoTime() - t0) / 1000;
+                    totLatency += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                    n++;
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+        System.out.printf(Locale.US, "stop latency avg:%.2fms max:%.2fms%n",
+                          totLatency * 1e-3 / n, maxLatency * 1e-3);
+    }
+
+    private static Search newSearch(Position pos, TranspositionTable tt) {
+        return new Search(pos, new long[200], 0, tt, new History());
+    }
+
+    private static MoveGen.MoveList legalMoves(Position pos) {
+        return new MoveGen().legalMoves(pos);
+    }
+
+    /** Search all test positions to a fixed depth. Return total number of searched nodes. */
+    private static long searchAll(TranspositionTable tt, int depth, int numThreads,
+                                  boolean print) throws ChessParseError {
+        return searchAll(tt, depth, numThreads, print, null);
+    }
+
+    /** Like searchAll above, and add the hash table statistics of all searches to ttStats, if not null. */
+    private static long searchAll(TranspositionTable tt, int depth, int numThreads, boolean print,
+                                  TranspositionTable.Stats ttStats) throws ChessParseError {
+        long totNodes = 0;
+        TranspositionTable.Stats stats = new TranspositionTable.Stats();
+        for (String fen : searchFENs) {
+            Position pos = TextIO.readFEN(fen);
+            tt.clear();
+            Search sc = new Search(pos, new long[200], 0, tt, new History());
+            sc.setNumThreads(numThreads);
+            MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+            sc.scoreMoveList(moves, 0);
+            sc.timeLimit(-1, -1);
+            Move m = sc.iterativeDeepening(moves, depth, -1, false);
+            totNodes += sc.getTotalNodes();
+            if (ttStats != null) {
+                sc.getTTStats(stats);
+                ttStats.add(stats);
+            }
+            if (print)
+                System.out.printf(Locale.US, "%-6s %6d %9d %s%n", TextIO.moveToString(pos, m, false),
+                                  m.score, sc.getTotalNodes(), fen);
+        }
+        return totNodes;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class EvaluateTest {
+    /**
+     * Test that the evaluation cache does not change evaluation scores.
+     */
+    @Test
+    public void testEvalCache() throws ChessParseError {
+        System.out.println("evalCache");
+        ArrayList<Position> positions = RandomGames.positions(10, 80);
+        Evaluate plain = new Evaluate(-1, Evaluate.DEFAULT_PAWN_HASH_LOG_SIZE,
+                                      Evaluate.DEFAULT_KING_SAFETY_HASH_LOG_SIZE);
+        Evaluate cached = new Evaluate(8, Evaluate.DEFAULT_PAWN_HASH_LOG_SIZE,
+                                       Evaluate.DEFAULT_KING_SAFETY_HASH_LOG_SIZE);
+        // The second pass finds the positions that were not replaced in the small cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < positions.size(); i++) {
+                Position pos = positions.get(i);
+                int score = plain.evalPos(pos);
+                assertEquals(TextIO.toFEN(pos), score, cached.evalPos(pos));
+                // The second call takes the score from the cache
+                assertEquals(TextIO.toFEN(pos), score, cached.evalPos(pos));
+            }
+        }
+        Evaluate.Stats stats = new Evaluate.Stats();
+        cached.getStats(stats);
+        assertTrue(stats.evalCacheHits > positions.size());
+    }
+
+    /**
+     * Test that evalPos(pos, alpha, beta) returns the full score unless it exits early,
+     * that early exits are far enough outside the window, and that the early exit score
+     * is rarely on the wrong side of the window.
+     */
+    @Test
+    public void testLazyEval() throws ChessParseError {
+        System.out.println("lazyEval");
+        ArrayList<Position> positions = RandomGames.positions(10, 80);
+        Evaluate full = new Evaluate(-1, Evaluate.DEFAULT_PAWN_HASH_LOG_SIZE,
+                                     Evaluate.DEFAULT_KING_SAFETY_HASH_LOG_SIZE);
+        Evaluate lazy = new Evaluate(-1, Evaluate.DEFAULT_PAWN_HASH_LOG_SIZE,
+                                     Evaluate.DEFAULT_KING_SAFETY_HASH_LOG_SIZE);
+        final int margin = Evaluate.DEFAULT_LAZY_EVAL_MARGIN;
+        int nLazy = 0;
+        int nWrongSide = 0;
+        for (Position pos : positions) {
+            int score = full.evalPos(pos);
+            for (int d = -400; d <= 400; d += 50) {
+                int alpha = score + d - 1;
+                int beta = score + d + 1;
+                int lazyScore = lazy.evalPos(pos, alpha, beta);
+                if (!lazy.lastEvalWasLazy()) {
+                    assertEquals(TextIO.toFEN(pos), score, lazyScore);
+                    continue;
+                }
+                nLazy++;
+                assertTrue(TextIO.toFEN(pos), (lazyScore - margin >= beta) || (lazyScore + margin <= alpha));
+                if ((lazyScore >= beta) != (score >= beta))
+                    nWrongSide++;
+            }
+        }
+        assertTrue(nLazy > 0);
+        assertTrue("wrong side: " + nWrongSide + " of " + nLazy, nWrongSide * 100 < nLazy);
+
+        // A negative margin disables lazy evaluation
+        lazy.setLazyEvalMargin(-1);
+        for (Position pos : positions) {
+            int score = full.evalPos(pos);
+            assertEquals(score, lazy.evalPos(pos, score + 500, score + 501));
+            assertFalse(lazy.lastEvalWasLazy());
+        }
+    }
+
+    /**
+     * Test that the pawn and king safety hash table sizes do not change evaluation
+     * scores, also when the tables only have one entry.
+     */
+    @Test
+    public void testEvalHashSizes() throws ChessParseError {
+        System.out.println("evalHashSizes");
+        ArrayList<Position> positions = RandomGames.positions(10, 80);
+        Evaluate large = new Evaluate(-1, 16, 15);
+        Evaluate tiny = new Evaluate(-1, 0, 0);
+        for (Position pos : positions)
+            assertEquals(TextIO.toFEN(pos), large.evalPos(pos), tiny.evalPos(pos));
+    }
+
+    /**
+     * Test that Evaluate objects used by different threads at the same time
+     * give the same scores as a single thread.
+     */
+    @Test
+    public void testConcurrentEval() throws Exception {
+        System.out.println("concurrentEval");
+        final ArrayList<Position> positions = RandomGames.positions(10, 80);
+        final int n = positions.size();
+        final int[] expected = new int[n];
+        Evaluate eval = new Evaluate(-1, 6, 6);
+        for (int i = 0; i < n; i++)
+            expected[i] = eval.evalPos(positions.get(i));
+
+        final int nThreads = 4;
+        final int[][] scores = new int[nThreads][n];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int[] result = scores[t];
+            final int offs = t * n / nThreads;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    // Small tables, so that the threads would overwrite each other's entries
+                    Evaluate e = new Evaluate(-1, 6, 6);
+                    for (int i = 0; i < n; i++) {
+                        int idx = (i + offs) % n;
+                        result[idx] = e.evalPos(new Position(positions.get(idx)));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread th : threads)
+            th.join();
+        for (int t = 0; t < nThreads; t++)
+            for (int i = 0; i < n; i++)
+                assertEquals(TextIO.toFEN(positions.get(i)), expected[i], scores[t][i]);
+    }
+}
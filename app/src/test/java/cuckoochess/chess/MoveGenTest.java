@@ -0,0 +1,61 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class MoveGenTest {
+    /**
+     * Test that givesCheck, with and without AttackInfo, agrees with making the
+     * move and testing if the opponent is in check.
+     */
+    @Test
+    public void testGivesCheck() throws ChessParseError {
+        System.out.println("givesCheck");
+        ArrayList<Position> positions = RandomGames.positions(10, 80);
+        MoveGen moveGen = new MoveGen();
+        AttackInfo ai = new AttackInfo();
+        UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
+        int nChecks = 0;
+        for (Position pos : positions) {
+            ai.compute(pos);
+            assertEquals(TextIO.toFEN(pos), MoveGen.inCheck(pos), ai.inCheck());
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            for (int mi = 0; mi < moves.size; mi++) {
+                m.decode(moves.m[mi]);
+                String msg = TextIO.toFEN(pos) + " " + TextIO.moveToUCIString(m);
+                pos.makeMove(m, ui);
+                boolean check = MoveGen.inCheck(pos);
+                pos.unMakeMove(m, ui);
+                assertEquals(msg, check, MoveGen.givesCheck(pos, m));
+                assertEquals(msg, check, MoveGen.givesCheck(pos, m, ai));
+                if (check)
+                    nChecks++;
+            }
+            moveGen.returnMoveList(moves);
+        }
+        assertTrue(nChecks > 100);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PerftTest {
+    /** Positions with known node counts for depth 1, 2, ... */
+    private static final String[] shallowFENs = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+    };
+    private static final long[][] shallowNodes = {
+        { 20, 400, 8902, 197281 },
+        { 48, 2039, 97862 },
+        { 14, 191, 2812, 43238, 674624 },
+        { 6, 264, 9467, 422333 },
+        { 44, 1486, 62379 },
+        { 46, 2079, 89890 },
+    };
+
+    /** Largest node count of the Perft.testSuite entries that are run by this test. */
+    private static final long maxSuiteNodes = 1500000;
+
+    /**
+     * Test of perft at depth 0, which counts the position itself.
+     */
+    @Test
+    public void testDepthZero() throws ChessParseError {
+        System.out.println("depthZero");
+        Position pos = TextIO.readFEN(TextIO.startPosFEN);
+        assertEquals(1, new Perft(-1, 1).perft(pos, 0));
+        assertEquals(1, new Perft(16, 2).perft(pos, 0));
+        assertEquals(0, new Perft(-1, 1).divide(pos, 0).length);
+    }
+
+    /**
+     * Test of perft at low depths, with and without hash table and threads.
+     */
+    @Test
+    public void testShallow() throws ChessParseError {
+        System.out.println("shallow");
+        Perft plain = new Perft(-1, 1);
+        Perft hashed = new Perft(16, 2);
+        for (int i = 0; i < shallowFENs.length; i++) {
+            Position pos = TextIO.readFEN(shallowFENs[i]);
+            for (int depth = 1; depth <= shallowNodes[i].length; depth++) {
+                long expected = shallowNodes[i][depth - 1];
+                assertEquals(shallowFENs[i], expected, plain.perft(pos, depth));
+                hashed.clearHash();
+                assertEquals(shallowFENs[i], expected, hashed.perft(pos, depth));
+            }
+        }
+    }
+
+    /**
+     * Test of the entries in Perft.testSuite that are small enough for a unit test.
+     */
+    @Test
+    public void testSuite() throws ChessParseError {
+        System.out.println("testSuite");
+        Perft perft = new Perft(18, 2);
+        for (String test : Perft.testSuite) {
+            String[] fields = test.split(";");
+            int depth = Integer.parseInt(fields[1]);
+            long expected = Long.parseLong(fields[2]);
+            if (expected > maxSuiteNodes)
+                continue;
+            perft.clearHash();
+            assertEquals(fields[0], expected, perft.perft(TextIO.readFEN(fields[0]), depth));
+        }
+    }
+
+    /**
+     * Test that a hash table much smaller than the tree, shared by several threads,
+     * does not change the node counts.
+     */
+    @Test
+    public void testSmallHash() throws ChessParseError {
+        System.out.println("smallHash");
+        Perft plain = new Perft(-1, 1);
+        Perft hashed = new Perft(6, 4);
+        for (int i = 0; i < shallowFENs.length; i++) {
+            Position pos = TextIO.readFEN(shallowFENs[i]);
+            int depth = Math.min(shallowNodes[i].length, 4);
+            hashed.clearHash();
+            assertEquals(shallowFENs[i], plain.perft(pos, depth), hashed.perft(pos, depth));
+        }
+    }
+
+    /**
+     * Test that each divide count equals perft of the position after the move.
+     */
+    @Test
+    public void testDivideMoves() throws ChessParseError {
+        System.out.println("divideMoves");
+        Perft perft = new Perft(-1, 1);
+        Position pos = TextIO.readFEN(shallowFENs[3]);
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        long[] counts = new Perft(16, 3).divide(pos, 3);
+        UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
+        for (int mi = 0; mi < moves.size; mi++) {
+            m.decode(moves.m[mi]);
+            pos.makeMove(m, ui);
+            assertEquals(TextIO.moveToUCIString(m), perft.perft(pos, 2), counts[mi]);
+            pos.unMakeMove(m, ui);
+        }
+    }
+
+    /**
+     * Test that divide returns one count per legal move, summing to the perft value.
+     */
+    @Test
+    public void testDivide() throws ChessParseError {
+        System.out.println("divide");
+        Position pos = TextIO.readFEN(shallowFENs[1]);
+        long[] counts = new Perft(-1, 2).divide(pos, 3);
+        assertEquals(new MoveGen().legalMoves(pos).size, counts.length);
+        long sum = 0;
+        for (long n : counts)
+            sum += n;
+        assertEquals(97862, sum);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Positions from random games, for tests that compare two ways to compute the same thing. */
+final class RandomGames {
+    /** Start positions with castling, en passant and promotion possibilities. */
+    private static final String[] startFENs = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "8/8/4k3/3p4/3P4/4K3/8/8 w - - 0 1",
+    };
+
+    private RandomGames() {
+    }
+
+    /**
+     * Play gamesPerFEN random games of at most maxPly moves from each start position
+     * and return all positions that occurred in the games.
+     */
+    static ArrayList<Position> positions(int gamesPerFEN, int maxPly) throws ChessParseError {
+        ArrayList<Position> ret = new ArrayList<>();
+        Random rnd = new Random(17);
+        MoveGen moveGen = new MoveGen();
+        UndoInfo ui = new UndoInfo();
+        Move m = new Move(0, 0, Piece.EMPTY);
+        for (String fen : startFENs) {
+            for (int g = 0; g < gamesPerFEN; g++) {
+                Position pos = TextIO.readFEN(fen);
+                ret.add(new Position(pos));
+                for (int ply = 0; ply < maxPly; ply++) {
+                    MoveGen.MoveList moves = moveGen.legalMoves(pos);
+                    if (moves.size == 0)
+                        break;
+                    m.decode(moves.m[rnd.nextInt(moves.size)]);
+                    moveGen.returnMoveList(moves);
+                    pos.makeMove(m, ui);
+                    ret.add(new Position(pos));
+                }
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class SEETest {
+    private static final int pV = Evaluate.pV;
+    private static final int nV = Evaluate.nV;
+    private static final int bV = Evaluate.bV;
+    private static final int rV = Evaluate.rV;
+    private static final int qV = Evaluate.qV;
+
+    /** Return the static exchange evaluation of move "strMove" in position "fen". */
+    private static int see(String fen, String strMove) throws ChessParseError {
+        Position pos = TextIO.readFEN(fen);
+        Search sc = new Search(pos, new long[200], 0, new TranspositionTable(3), new History());
+        Move m = TextIO.stringToMove(pos, strMove);
+        assertNotNull(strMove, m);
+        int score = sc.SEE(m);
+        assertEquals("SEE modified the position", fen, TextIO.toFEN(pos));
+        return score;
+    }
+
+    /**
+     * Test of SEE for simple captures.
+     */
+    @Test
+    public void testSimple() throws ChessParseError {
+        System.out.println("simple");
+        // Undefended pawn
+        assertEquals(pV, see("1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - - 0 1", "Rxe5"));
+        // Knight takes pawn, knight is recaptured
+        assertEquals(pV - nV, see("1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - - 0 1", "Nxe5"));
+        // Pawn takes defended knight
+        assertEquals(nV - pV, see("4k3/8/4p3/3n4/2P5/8/8/4K3 w - - 0 1", "cxd5"));
+        // Rook takes queen defended by pawn
+        assertEquals(qV - rV, see("6k1/8/4p3/3q4/8/8/3R4/6K1 w - - 0 1", "Rxd5"));
+    }
+
+    /**
+     * Test of SEE when pieces behind the capturing pieces join the exchange.
+     */
+    @Test
+    public void testXRay() throws ChessParseError {
+        System.out.println("xRay");
+        // Doubled rooks win a pawn defended by one rook
+        assertEquals(pV, see("3r2k1/8/8/3p4/8/8/3R4/3R2K1 w - - 0 1", "Rxd5"));
+        // A single rook loses the exchange
+        assertEquals(pV - rV, see("3r2k1/8/8/3p4/8/8/3R4/6K1 w - - 0 1", "Rxd5"));
+        // The queen behind the rook makes recapturing with the queen bad for black
+        assertEquals(rV, see("3q2k1/8/8/3r4/8/3R4/3Q4/6K1 w - - 0 1", "Rxd5"));
+        // Queen takes rook defended by bishop, king recaptures
+        assertEquals(rV - qV + bV, see("6k1/8/8/8/8/4b3/3r4/3QK3 w - - 0 1", "Qxd2"));
+    }
+
+    /**
+     * Test of SEE for en passant and king captures.
+     */
+    @Test
+    public void testSpecial() throws ChessParseError {
+        System.out.println("special");
+        assertEquals(pV, see("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1", "exd6"));
+        assertEquals(0, see("4k3/2p5/8/3pP3/8/8/8/4K3 w - d6 0 1", "exd6"));
+        assertEquals(rV, see("6k1/8/8/8/8/8/3r4/3QK3 w - - 0 1", "Kxd2"));
+        assertEquals(rV, see("6k1/8/8/8/8/8/3r4/3QK3 w - - 0 1", "Qxd2"));
+        // A knight moving to the en passant square does not capture anything
+        assertEquals(pV - nV, see("1k6/6p1/8/5NPp/8/8/8/K7 w - h6 0 1", "Nh6"));
+    }
+
+    /**
+     * Reference static exchange evaluation. Recomputes all attackers of the target
+     * square from the current occupancy before each capture, instead of adding
+     * x-ray attackers incrementally. Promotions are not handled.
+     */
+    private static int referenceSEE(Position pos, Move m) {
+        final int square = m.to;
+        final long[] bb = pos.pieceTypeBB;
+        long occupied = (pos.whiteBB | pos.blackBB) & ~(1L << m.from);
+        int[] captures = new int[34];
+        int nCapt = 0;
+        final int p = pos.getPiece(m.from);
+        if ((square == pos.getEpSquare()) && ((p == Piece.WPAWN) || (p == Piece.BPAWN))) {
+            captures[nCapt++] = pV;
+            occupied &= ~(1L << (pos.whiteMove ? square - 8 : square + 8));
+        } else {
+            captures[nCapt++] = Evaluate.pieceValue[pos.getPiece(square)];
+            if (captures[0] == Evaluate.kV)
+                return Evaluate.kV;
+        }
+        boolean white = !pos.whiteMove;
+        int valOnSquare = Evaluate.pieceValue[p];
+        while (true) {
+            final int pOffs = white ? 0 : Piece.BKING - Piece.WKING;
+            final long bAtk = BitBoard.bishopAttacks(square, occupied);
+            final long rAtk = BitBoard.rookAttacks(square, occupied);
+            final long[] atks = {
+                (white ? BitBoard.bPawnAttacks[square] : BitBoard.wPawnAttacks[square]) & bb[Piece.WPAWN + pOffs],
+                BitBoard.knightAttacks[square] & bb[Piece.WKNIGHT + pOffs],
+                bAtk & bb[Piece.WBISHOP + pOffs],
+                rAtk & bb[Piece.WROOK + pOffs],
+                (bAtk | rAtk) & bb[Piece.WQUEEN + pOffs],
+                BitBoard.kingAttacks[square] & bb[Piece.WKING + pOffs],
+            };
+            final int[] values = { pV, nV, bV, rV, qV, Evaluate.kV };
+            int i = 0;
+            while ((i < atks.length) && ((atks[i] & occupied) == 0))
+                i++;
+            if (i == atks.length)
+                break;
+            captures[nCapt++] = valOnSquare;
+            if (valOnSquare == Evaluate.kV)
+                break;
+            valOnSquare = values[i];
+            long atk = atks[i] & occupied;
+            occupied &= ~(atk & -atk);
+            white = !white;
+        }
+        int score = 0;
+        for (int i = nCapt - 1; i > 0; i--)
+            score = Math.max(0, captures[i] - score);
+        return captures[0] - score;
+    }
+
+    /**
+     * Test that SEE agrees with the reference implementation for all non-promotion
+     * moves in positions from random games. Quiet moves are included because the
+     * search uses SEE to prune them.
+     */
+    @Test
+    public void testReference() throws ChessParseError {
+        System.out.println("reference");
+        ArrayList<Position> positions = RandomGames.positions(10, 80);
+        MoveGen moveGen = new MoveGen();
+        Move m = new Move(0, 0, Piece.EMPTY);
+        int nMoves = 0;
+        for (Position pos : positions) {
+            Search sc = new Search(pos, new long[200], 0, new TranspositionTable(3), new History());
+            MoveGen.MoveList moves = moveGen.legalMoves(pos);
+            for (int mi = 0; mi < moves.size; mi++) {
+                m.decode(moves.m[mi]);
+                if (m.promoteTo != Piece.EMPTY)
+                    continue;
+                assertEquals(TextIO.toFEN(pos) + " " + TextIO.moveToUCIString(m),
+                             referenceSEE(pos, m), sc.SEE(m));
+                nMoves++;
+            }
+            moveGen.returnMoveList(moves);
+        }
+        assertTrue(nMoves > 1000);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SearchTest {
+    private static Move search(Search sc, Position pos, int depth) {
+        MoveGen.MoveList moves = new MoveGen().legalMoves(pos);
+        sc.scoreMoveList(moves, 0);
+        sc.timeLimit(-1, -1);
+        return sc.iterativeDeepening(moves, depth, -1, false);
+    }
+
+    /**
+     * Test that helper threads search in every search made by a reused Search object.
+     */
+    @Test
+    public void testHelpersReused() throws ChessParseError {
+        System.out.println("helpersReused");
+        Position pos = TextIO.readFEN("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10");
+        long[] posHashList = new long[200];
+        TranspositionTable tt = new TranspositionTable(16);
+        History ht = new History();
+        Search sc = new Search(pos, posHashList, 0, tt, ht);
+        sc.setNumThreads(3);
+        for (int i = 0; i < 3; i++) {
+            tt.clear();
+            ht.age();
+            sc.setRootPosition(pos, posHashList, 0);
+            assertNotNull(search(sc, pos, 9));
+            assertTrue("search " + i, sc.getHelperNodes() > 0);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+    CuckooChess - A java chess program.
+    Copyright (C) 2011  Peter Österlund, peterosterlund2@gmail.com
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package cuckoochess.chess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cuckoochess.chess.TranspositionTable.TTEntry;
+
+public class TranspositionTableTest {
+    /**
+     * Test that all fields of an entry survive packing, including the largest
+     * generation and depth values.
+     */
+    @Test
+    public void testMakeData() {
+        System.out.println("makeData");
+        int move = new Move(Position.getSquare(4, 6), Position.getSquare(4, 7), Piece.WQUEEN).encode();
+        int maxDepth = TTEntry.DEPTH_MASK + TTEntry.QS_DEPTH;
+        long data = TTEntry.makeData(move, -123, 0, maxDepth, TTEntry.GEN_MASK, TTEntry.T_LE, 456);
+        assertEquals(move, (int)data & 0xffff);
+        assertEquals(-123, TTEntry.getScore(data, 0));
+        assertEquals(maxDepth, TTEntry.getDepth(data));
+        assertEquals(TTEntry.GEN_MASK, TTEntry.getGeneration(data));
+        assertEquals(TTEntry.T_LE, TTEntry.getType(data));
+        assertEquals(456, (short)(data >>> 48));
+
+        data = TTEntry.setGeneration(data, 5);
+        assertEquals(5, TTEntry.getGeneration(data));
+        assertEquals(maxDepth, TTEntry.getDepth(data));
+        assertEquals(TTEntry.T_LE, TTEntry.getType(data));
+
+        // Larger depths are stored as the largest representable depth
+        data = TTEntry.makeData(move, 0, 0, maxDepth + 100, 0, TTEntry.T_EXACT, 0);
+        assertEquals(maxDepth, TTEntry.getDepth(data));
+        assertEquals(0, TTEntry.getGeneration(data));
+        assertEquals(TTEntry.T_EXACT, TTEntry.getType(data));
+    }
+
+    /**
+     * Test that an entry stored 16 moves ago is treated as old, so that it is
+     * replaced before entries from the current search.
+     */
+    @Test
+    public void testOldGeneration() {
+        System.out.println("oldGeneration");
+        // 8 entries in a single bucket, so all keys compete for the same slots
+        TranspositionTable tt = new TranspositionTable(3, 8);
+        final long oldKey = 0x123456789abcdefL;
+        tt.insert(oldKey, 0, 17, TTEntry.T_EXACT, 0, 10 * Search.plyScale, 0);
+        assertEquals(125, tt.hashFull());
+        for (int i = 0; i < 16; i++)
+            tt.nextGeneration();
+        assertEquals(0, tt.hashFull());
+
+        final int n = tt.getNumEntries();
+        for (int i = 0; i < n; i++)
+            tt.insert(1000 + i, 0, 0, TTEntry.T_GE, 0, Search.plyScale, 0);
+        assertEquals(1000, tt.hashFull());
+        TTEntry ent = new TTEntry();
+        for (int i = 0; i < n; i++) {
+            tt.probe(1000 + i, ent);
+            assertEquals(TTEntry.T_GE, ent.getType());
+        }
+        tt.probe(oldKey, ent);
+        assertEquals(TTEntry.T_EMPTY, ent.getType());
+    }
+
+    /**
+     * Test that hashFull samples the whole table, not only the beginning of it.
+     */
+    @Test
+    public void testHashFull() {
+        System.out.println("hashFull");
+        TranspositionTable tt = new TranspositionTable(14);
+        final int n = tt.getNumEntries();
+        assertEquals(0, tt.hashFull());
+        // Fill the second half of the table. The first hash index of key k is k.
+        for (int k = n / 2; k < n; k++)
+            tt.insert(k, 0, 0, TTEntry.T_EXACT, 0, Search.plyScale, 0);
+        int full = tt.hashFull();
+        assertTrue("hashFull: " + full, Math.abs(full - 500) <= 10);
+        for (int k = 0; k < n / 2; k++)
+            tt.insert(k, 0, 0, TTEntry.T_EXACT, 0, Search.plyScale, 0);
+        assertEquals(1000, tt.hashFull());
+    }
+}